@@ -0,0 +1,36 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rainfall.ehcache2.operation;
+
+import io.rainfall.SequenceGenerator;
+import utils.LatestSequenceGenerator;
+
+/**
+ * A get drawing its keys from any sequence generator, such as the skewed distributions of utils.KeyDistributions,
+ * instead of the ones atRandom offers.
+ *
+ * @author Ludovic Orban
+ */
+public class SequencedGetOperation<K, V> extends GetOperation<K, V> {
+
+  public SequencedGetOperation(SequenceGenerator sequenceGenerator) {
+    if (sequenceGenerator instanceof LatestSequenceGenerator) {
+      throw new IllegalArgumentException("The latest distribution needs inserts, use it with the mixed workload");
+    }
+    this.sequenceGenerator = sequenceGenerator;
+  }
+
+}
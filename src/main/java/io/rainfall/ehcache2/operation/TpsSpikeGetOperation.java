@@ -3,12 +3,16 @@ package io.rainfall.ehcache2.operation;
 import io.rainfall.AssertionEvaluator;
 import io.rainfall.Configuration;
 import io.rainfall.TestException;
-import io.rainfall.ehcache.statistics.EhcacheResult;
 import io.rainfall.ehcache2.CacheConfig;
 import io.rainfall.statistics.StatisticsHolder;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import utils.LatencyRecorder;
+import utils.OpenLoopPacer;
+import utils.TrafficShape;
+import utils.TrafficShaper;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -20,44 +24,37 @@ import static io.rainfall.ehcache.statistics.EhcacheResult.MISS;
 /**
  * @author Aurelien Broszniowski
  */
-public class TpsSpikeGetOperation<K, V> extends GetOperation<K, V> {
+public class TpsSpikeGetOperation<K, V> extends GetOperation<K, V> implements Closeable {
 
-  private final long tpsLimit;
-  private final long tpsInitialValue;
-  private long tpsIncreaseStep;
-  private long currentTpsLimit;
+  private final TrafficShaper shaper;
+  private final LatencyRecorder latencyRecorder;
 
   public TpsSpikeGetOperation(final long tpsLimit) {
-    this.tpsLimit = tpsLimit;
-    tpsInitialValue = tpsLimit / 100;
-    tpsIncreaseStep = tpsLimit / 100;
-    this.currentTpsLimit = tpsIncreaseStep;
+    this(tpsLimit, null);
+  }
 
-    Runnable maxTpsUpdater = new Runnable() {
+  public TpsSpikeGetOperation(final long tpsLimit, final LatencyRecorder latencyRecorder) {
+    this(TrafficShape.triangle(tpsLimit), latencyRecorder);
+  }
 
-      @Override
-      public void run() {
-        try {
-          while (true) {
-            Thread.sleep(500);
-            currentTpsLimit += tpsIncreaseStep;
-            if (currentTpsLimit >= tpsLimit) {
-              currentTpsLimit = tpsLimit;
-              tpsIncreaseStep = -tpsIncreaseStep;
-            } else if (currentTpsLimit <= tpsInitialValue) {
-              currentTpsLimit = tpsInitialValue;
-              tpsIncreaseStep = -tpsIncreaseStep;
-            }
-          }
-        } catch (InterruptedException e) { e.printStackTrace(); }
-      }
-    };
+  /**
+   * Every get is also recorded in the latency recorder, both from its actual start and from the time it was meant
+   * to start along the traffic shape, so that the time spent behind schedule is not hidden.
+   */
+  public TpsSpikeGetOperation(final TrafficShape shape, final LatencyRecorder latencyRecorder) {
+    this.shaper = new TrafficShaper(shape);
+    this.latencyRecorder = latencyRecorder;
+    if (latencyRecorder != null) {
+      latencyRecorder.setTrafficShaper(shaper);
+    }
+  }
 
-    Thread t = new Thread(maxTpsUpdater);
-    t.start();
-//    try {
-//      t.join();
-//    } catch (InterruptedException e) { e.printStackTrace(); }
+  /**
+   * Stops following the traffic shape, the operation keeps running at the last TPS.
+   */
+  @Override
+  public void close() {
+    shaper.close();
   }
 
   @Override
@@ -67,26 +64,33 @@ public class TpsSpikeGetOperation<K, V> extends GetOperation<K, V> {
     CacheConfig<K, V> cacheConfig = (CacheConfig<K, V>)configurations.get(CacheConfig.class);
     final long next = this.sequenceGenerator.next();
     List<Ehcache> caches = cacheConfig.getCaches();
-    long currentTps = statisticsHolder.getCurrentTps(EhcacheResult.GET);
 
-    if (currentTps < this.currentTpsLimit) {
-      for (final Ehcache cache : caches) {
-        Element value;
-        Object k = keyGenerator.generate(next);
+    long intendedStart = shaper.acquire();
+    if (intendedStart == OpenLoopPacer.PAUSED) {
+      return;
+    }
+    for (final Ehcache cache : caches) {
+      Element value;
+      Object k = keyGenerator.generate(next);
 
-        long start = getTimeInNs();
-        try {
-          value = cache.get(k);
-          long end = getTimeInNs();
-          if (value == null) {
-            statisticsHolder.record(cache.getName(), (end - start), MISS);
-          } else {
-            statisticsHolder.record(cache.getName(), (end - start), GET);
-          }
-        } catch (Exception e) {
-          long end = getTimeInNs();
-          statisticsHolder.record(cache.getName(), (end - start), EXCEPTION);
+      long start = getTimeInNs();
+      try {
+        value = cache.get(k);
+        long end = getTimeInNs();
+        if (latencyRecorder != null) {
+          latencyRecorder.record(intendedStart, start, end);
+        }
+        if (value == null) {
+          statisticsHolder.record(cache.getName(), (end - start), MISS);
+        } else {
+          statisticsHolder.record(cache.getName(), (end - start), GET);
+        }
+      } catch (Exception e) {
+        long end = getTimeInNs();
+        if (latencyRecorder != null) {
+          latencyRecorder.record(intendedStart, start, end);
         }
+        statisticsHolder.record(cache.getName(), (end - start), EXCEPTION);
       }
     }
   }
@@ -95,6 +99,7 @@ public class TpsSpikeGetOperation<K, V> extends GetOperation<K, V> {
   public List<String> getDescription() {
     List<String> desc = new ArrayList<String>();
     desc.add(getWeightInPercent() + "% SPIKED get(" + keyGenerator.getDescription() + " key)");
+    desc.add("traffic shape " + shaper.getShape());
     desc.add(sequenceGenerator.getDescription());
     return desc;
   }
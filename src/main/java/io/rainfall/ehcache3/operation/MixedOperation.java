@@ -0,0 +1,106 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rainfall.ehcache3.operation;
+
+import io.rainfall.AssertionEvaluator;
+import io.rainfall.Configuration;
+import io.rainfall.ObjectGenerator;
+import io.rainfall.Operation;
+import io.rainfall.TestException;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.statistics.StatisticsHolder;
+import org.ehcache.Cache;
+import utils.MixedResult;
+import utils.MixedWorkload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes a get, put, remove, putIfAbsent or replace as picked by the workload, recording one {@link MixedResult}
+ * per operation type.
+ *
+ * @author Ludovic Orban
+ */
+public class MixedOperation<K, V> extends Operation {
+
+  private final MixedWorkload workload;
+  private final ObjectGenerator<K> keyGenerator;
+  private final ObjectGenerator<V> valueGenerator;
+
+  public MixedOperation(MixedWorkload workload, ObjectGenerator<K> keyGenerator, ObjectGenerator<V> valueGenerator) {
+    this.workload = workload;
+    this.keyGenerator = keyGenerator;
+    this.valueGenerator = valueGenerator;
+  }
+
+  @Override
+  public void exec(final StatisticsHolder statisticsHolder, final Map<Class<? extends Configuration>,
+      Configuration> configurations, final List<AssertionEvaluator> assertions) throws TestException {
+
+    CacheConfig<K, V> cacheConfig = (CacheConfig<K, V>)configurations.get(CacheConfig.class);
+    List<Cache<K, V>> caches = cacheConfig.getCaches();
+    MixedWorkload.OperationType type = workload.nextOperation();
+    final long next = workload.nextKey(type);
+
+    for (final Cache<K, V> cache : caches) {
+      K k = keyGenerator.generate(next);
+
+      long start = System.nanoTime();
+      try {
+        MixedResult result;
+        switch (type) {
+          case GET:
+            result = cache.get(k) == null ? MixedResult.MISS : MixedResult.GET;
+            break;
+          case PUT:
+            cache.put(k, valueGenerator.generate(next));
+            result = MixedResult.PUT;
+            break;
+          case REMOVE:
+            cache.remove(k);
+            result = MixedResult.REMOVE;
+            break;
+          case PUT_IF_ABSENT:
+            cache.putIfAbsent(k, valueGenerator.generate(next));
+            result = MixedResult.PUT_IF_ABSENT;
+            break;
+          case REPLACE:
+            cache.replace(k, valueGenerator.generate(next));
+            result = MixedResult.REPLACE;
+            break;
+          default:
+            throw new AssertionError(type);
+        }
+        long end = System.nanoTime();
+        statisticsHolder.record(cacheConfig.getCacheName(cache), (end - start), result);
+      } catch (Exception e) {
+        long end = System.nanoTime();
+        statisticsHolder.record(cacheConfig.getCacheName(cache), (end - start), MixedResult.EXCEPTION);
+      }
+    }
+    workload.inserted(type, next);
+  }
+
+  @Override
+  public List<String> getDescription() {
+    List<String> desc = new ArrayList<String>();
+    desc.add("MIXED(" + keyGenerator.getDescription() + " key, " + valueGenerator.getDescription() + " value)");
+    desc.add(workload.getDescription());
+    return desc;
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rainfall.ehcache3.operation;
+
+import io.rainfall.AssertionEvaluator;
+import io.rainfall.Configuration;
+import io.rainfall.Operation;
+import io.rainfall.TestException;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.statistics.StatisticsHolder;
+import org.ehcache.Cache;
+import utils.LatencyRecorder;
+import utils.MixedResult;
+import utils.MixedWorkload;
+import utils.OpenLoopPacer;
+import utils.TraceReader;
+import utils.TraceRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a key trace against caches of Long keys and String values, every thread taking the next batch of records
+ * from the shared trace, which is started over when exhausted.
+ * <p/>
+ * At a speed of 1 every record is executed when it happened in the trace relative to the start of the replay,
+ * 2 replays twice as fast, and so on; the latencies are then measured from that intended time, late records are not
+ * skipped. At a speed of 0 the records are replayed as fast as possible. The values are Strings of the recorded
+ * size, or of DEFAULT_VALUE_SIZE when the trace has none.
+ *
+ * @author Ludovic Orban
+ */
+public class TraceReplayOperation extends Operation {
+
+  public static final int DEFAULT_VALUE_SIZE = 4096;
+
+  private static final int BATCH_SIZE = 256;
+
+  private final TraceReader reader;
+  private final double speed;
+  private final LatencyRecorder latencyRecorder;
+  private final AtomicLong originNanos = new AtomicLong();
+  private final ConcurrentMap<Integer, String> values = new ConcurrentHashMap<Integer, String>();
+  private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>() {
+    @Override
+    protected Batch initialValue() {
+      return new Batch();
+    }
+  };
+  private long loopOffsetMicros;
+  private long lastTimeMicros;
+
+  public TraceReplayOperation(TraceReader reader, double speed) {
+    this(reader, speed, null);
+  }
+
+  public TraceReplayOperation(TraceReader reader, double speed, LatencyRecorder latencyRecorder) {
+    if (speed < 0) {
+      throw new IllegalArgumentException("Replay speed must be positive, or 0 to replay as fast as possible");
+    }
+    this.reader = reader;
+    this.speed = speed;
+    this.latencyRecorder = latencyRecorder;
+  }
+
+  /**
+   * Puts the keys the trace reads before writing them, i.e. the keys that were already cached when the trace was
+   * recorded, then rewinds the trace.
+   *
+   * @return the number of loaded keys
+   */
+  public int preload(Cache<Long, String> cache) throws IOException {
+    Set<Long> seen = new HashSet<Long>();
+    TraceRecord record = new TraceRecord();
+    int loaded = 0;
+    reader.rewind();
+    while (reader.next(record)) {
+      if (seen.add(record.keyId) && record.type != MixedWorkload.OperationType.PUT
+          && record.type != MixedWorkload.OperationType.PUT_IF_ABSENT) {
+        cache.put(record.keyId, valueOf(record.valueSize));
+        loaded++;
+      }
+    }
+    reader.rewind();
+    return loaded;
+  }
+
+  @Override
+  public void exec(final StatisticsHolder statisticsHolder, final Map<Class<? extends Configuration>,
+      Configuration> configurations, final List<AssertionEvaluator> assertions) throws TestException {
+
+    CacheConfig<Long, String> cacheConfig = (CacheConfig<Long, String>)configurations.get(CacheConfig.class);
+    List<Cache<Long, String>> caches = cacheConfig.getCaches();
+    TraceRecord record = batches.get().next();
+    if (record == null) {
+      return;
+    }
+
+    long intendedStart;
+    if (speed > 0) {
+      originNanos.compareAndSet(0, System.nanoTime());
+      intendedStart = originNanos.get() + (long) (record.timeMicros * 1000L / speed);
+      OpenLoopPacer.waitUntil(intendedStart);
+    } else {
+      intendedStart = System.nanoTime();
+    }
+
+    for (final Cache<Long, String> cache : caches) {
+      Long k = record.keyId;
+
+      long start = System.nanoTime();
+      MixedResult result;
+      try {
+        switch (record.type) {
+          case GET:
+            result = cache.get(k) == null ? MixedResult.MISS : MixedResult.GET;
+            break;
+          case PUT:
+            cache.put(k, valueOf(record.valueSize));
+            result = MixedResult.PUT;
+            break;
+          case REMOVE:
+            cache.remove(k);
+            result = MixedResult.REMOVE;
+            break;
+          case PUT_IF_ABSENT:
+            cache.putIfAbsent(k, valueOf(record.valueSize));
+            result = MixedResult.PUT_IF_ABSENT;
+            break;
+          case REPLACE:
+            cache.replace(k, valueOf(record.valueSize));
+            result = MixedResult.REPLACE;
+            break;
+          default:
+            throw new AssertionError(record.type);
+        }
+      } catch (Exception e) {
+        result = MixedResult.EXCEPTION;
+      }
+      long end = System.nanoTime();
+      statisticsHolder.record(cacheConfig.getCacheName(cache), (end - start), result);
+      if (latencyRecorder != null) {
+        latencyRecorder.record(intendedStart, start, end);
+      }
+    }
+  }
+
+  private synchronized int fill(TraceRecord[] records) {
+    try {
+      int count = reader.next(records);
+      if (count == 0) {
+        // start over, the next loop following the previous one in time
+        loopOffsetMicros += lastTimeMicros + 1;
+        reader.rewind();
+        count = reader.next(records);
+      }
+      if (count > 0) {
+        lastTimeMicros = records[count - 1].timeMicros;
+      }
+      for (int i = 0; i < count; i++) {
+        records[i].timeMicros += loopOffsetMicros;
+      }
+      return count;
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read the key trace", e);
+    }
+  }
+
+  private String valueOf(int size) {
+    if (size <= 0) {
+      size = DEFAULT_VALUE_SIZE;
+    }
+    String value = values.get(size);
+    if (value == null) {
+      char[] chars = new char[size];
+      for (int i = 0; i < size; i++) {
+        chars[i] = (char) ('a' + i % 26);
+      }
+      value = new String(chars);
+      values.putIfAbsent(size, value);
+    }
+    return value;
+  }
+
+  @Override
+  public List<String> getDescription() {
+    List<String> desc = new ArrayList<String>();
+    desc.add("TRACE REPLAY(Long key, String value)");
+    desc.add(speed > 0 ? "at " + speed + "x the recorded speed" : "as fast as possible");
+    return desc;
+  }
+
+  private class Batch {
+    private final TraceRecord[] records = new TraceRecord[BATCH_SIZE];
+    private int position;
+    private int count;
+
+    Batch() {
+      for (int i = 0; i < records.length; i++) {
+        records[i] = new TraceRecord();
+      }
+    }
+
+    TraceRecord next() {
+      if (position == count) {
+        count = fill(records);
+        position = 0;
+        if (count == 0) {
+          return null;
+        }
+      }
+      return records[position++];
+    }
+  }
+}
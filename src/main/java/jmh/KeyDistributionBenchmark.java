@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh;
+
+import io.rainfall.SequenceGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.KeyDistributions;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goal : check that drawing a key from the utils.KeyDistributions costs a few ns, whatever the key count, so that
+ * they do not cap the TPS of the scenarios using them
+ * <p/>
+ * mvn compile exec:exec -Dtest=jmh.KeyDistributionBenchmark
+ *
+ * @author Ludovic Orban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class KeyDistributionBenchmark {
+
+  @Param({"zipfian:0.99", "scrambledZipfian:0.99", "hotspot:80:20", "latest:0.99"})
+  public String distribution;
+
+  @Param({"100000", "10000000"})
+  public int keys;
+
+  private SequenceGenerator sequenceGenerator;
+
+  @Setup
+  public void setUp() {
+    sequenceGenerator = KeyDistributions.parse(distribution, keys);
+  }
+
+  @Benchmark
+  public long next() {
+    return sequenceGenerator.next();
+  }
+
+  public static void main(String[] args) throws Exception {
+    File reportPath = new File("target/jmh/" + KeyDistributionBenchmark.class.getName().replace('.', '/'));
+    reportPath.mkdirs();
+
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .parent(commandLineOptions)
+        .resultFormat(ResultFormatType.CSV)
+        .result(new File(reportPath, "results.csv").getPath());
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      options.include(KeyDistributionBenchmark.class.getName());
+    }
+    new Runner(options.build()).run();
+  }
+
+}
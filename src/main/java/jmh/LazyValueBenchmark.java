@@ -0,0 +1,204 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.config.persistence.CacheManagerPersistenceConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.LazyValue;
+import utils.LazyValueSerializer;
+import utils.StringAsCharSerializer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goal : compare eager and lazy values for gets that only check presence, read a few chars, or read the whole
+ * 4 KB String, per tier
+ * <p/>
+ * mvn compile exec:exec -Dtest=jmh.LazyValueBenchmark
+ *
+ * @author Ludovic Orban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class LazyValueBenchmark {
+
+  private static final int NB_ENTRIES = 10000;
+  private static final int VALUE_LENGTH = 4096;
+  private static final int PARTIAL_READ_LENGTH = 16;
+
+  @Param({"heap", "offheap", "disk"})
+  public String tier;
+
+  @Param({"false", "true"})
+  public boolean lazy;
+
+  private final StringAsCharSerializer stringSerializer = new StringAsCharSerializer();
+  private CacheManager cacheManager;
+  private Cache<Long, String> eagerCache;
+  private Cache<Long, LazyValue<String>> lazyCache;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    ResourcePoolsBuilder resourcePools;
+    if (tier.equals("heap")) {
+      resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(NB_ENTRIES, EntryUnit.ENTRIES);
+    } else if (tier.equals("offheap")) {
+      resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(10, EntryUnit.ENTRIES).offheap(256, MemoryUnit.MB);
+    } else if (tier.equals("disk")) {
+      resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(10, EntryUnit.ENTRIES).disk(1, MemoryUnit.GB);
+    } else {
+      throw new IllegalArgumentException("Unknown tier " + tier);
+    }
+
+    CacheManagerBuilder<CacheManager> cacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder()
+        .with(new CacheManagerPersistenceConfiguration(new File("target/jmh/lazy-value-persistence")));
+    if (lazy) {
+      LazyValueSerializer<String> valueSerializer = new LazyValueSerializer<String>(stringSerializer);
+      cacheManager = cacheManagerBuilder
+          .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, (Class) LazyValue.class)
+              .withValueSerializer(valueSerializer)
+              .withResourcePools(resourcePools))
+          .build(true);
+      lazyCache = cacheManager.getCache("cache1", Long.class, (Class) LazyValue.class);
+      for (long i = 0; i < NB_ENTRIES; i++) {
+        lazyCache.put(i, valueSerializer.wrap(value(i)));
+      }
+    } else {
+      cacheManager = cacheManagerBuilder
+          .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+              .withValueSerializer(stringSerializer)
+              .withResourcePools(resourcePools))
+          .build(true);
+      eagerCache = cacheManager.getCache("cache1", Long.class, String.class);
+      for (long i = 0; i < NB_ENTRIES; i++) {
+        eagerCache.put(i, value(i));
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    cacheManager.close();
+  }
+
+  @Benchmark
+  public boolean exists() {
+    long key = nextKey();
+    if (lazy) {
+      return lazyCache.get(key) != null;
+    }
+    return eagerCache.get(key) != null;
+  }
+
+  @Benchmark
+  public int partialRead() {
+    long key = nextKey();
+    int sum = 0;
+    if (lazy) {
+      LazyValue<String> value = lazyCache.get(key);
+      if (value.isDecoded()) {
+        // values faulted into the heap tier are shared, and may already have been decoded by a full read
+        String string = value.get();
+        for (int i = 0; i < PARTIAL_READ_LENGTH; i++) {
+          sum += string.charAt(i);
+        }
+      } else {
+        ByteBuffer binary = value.binary();
+        for (int i = 0; i < PARTIAL_READ_LENGTH; i++) {
+          sum += stringSerializer.charAt(binary, i);
+        }
+      }
+    } else {
+      String value = eagerCache.get(key);
+      for (int i = 0; i < PARTIAL_READ_LENGTH; i++) {
+        sum += value.charAt(i);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int fullRead() {
+    long key = nextKey();
+    if (lazy) {
+      return lazyCache.get(key).get().hashCode();
+    }
+    return eagerCache.get(key).hashCode();
+  }
+
+  private static long nextKey() {
+    return ThreadLocalRandom.current().nextInt(NB_ENTRIES);
+  }
+
+  private static String value(long seed) {
+    StringBuilder sb = new StringBuilder(VALUE_LENGTH);
+    String prefix = Long.toString(seed);
+    sb.append(prefix);
+    for (int i = prefix.length(); i < VALUE_LENGTH; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    File reportPath = new File("target/jmh/" + LazyValueBenchmark.class.getName().replace('.', '/'));
+    reportPath.mkdirs();
+
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .parent(commandLineOptions)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.CSV)
+        .result(new File(reportPath, "results.csv").getPath());
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      options.include(LazyValueBenchmark.class.getName());
+    }
+    new Runner(options.build()).run();
+  }
+
+}
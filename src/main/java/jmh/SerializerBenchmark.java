@@ -0,0 +1,189 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh;
+
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.CachingCompactJavaSerializer;
+import utils.ClassCachingCompactJavaSerializer;
+import utils.StringAsCharSerializer;
+import utils.StringCharsetSerializer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goal : compare serialize, read and equals of the String serializers in utils and Ehcache's CompactJavaSerializer,
+ * on heap and direct buffers, from 16 B to 1 MB values
+ * <p/>
+ * mvn compile exec:exec -Dtest=jmh.SerializerBenchmark
+ * <br/>
+ * When started directly, the usual JMH command line options are accepted, e.g. -p size=16,4096 read
+ * <p/>
+ * direct reads the same direct buffer every time, which is the best case for CachingCompactJava's decode cache ;
+ * directRotating cycles through copies at distinct addresses so that its reads mostly miss.
+ * ClassCachingCompactJavaCompare is ClassCachingCompactJava with compareSerializedForm on.
+ *
+ * @author Ludovic Orban
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SerializerBenchmark {
+
+  private static final int ROTATING_BUFFERS = 1024;
+  private static final long ROTATING_BYTES = 256L * 1024 * 1024;
+
+  @Param({"StringCharset", "StringAsChar", "CachingCompactJava", "ClassCachingCompactJava", "ClassCachingCompactJavaCompare", "CompactJava"})
+  public String serializerType;
+
+  @Param({"16", "256", "4096", "65536", "1048576"})
+  public int size;
+
+  @Param({"heap", "direct", "directRotating"})
+  public String bufferType;
+
+  private Serializer<String> serializer;
+  private String value;
+  private String equalValue;
+  private ByteBuffer[] binaries;
+  private int next;
+
+  @Setup
+  public void setUp() throws Exception {
+    serializer = createSerializer(serializerType);
+
+    StringBuilder sb = new StringBuilder(size);
+    for (int i = 0; i < size; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    value = sb.toString();
+    // a distinct instance so that equals cannot short-circuit on identity
+    equalValue = new String(value);
+
+    ByteBuffer serialized = serializer.serialize(value);
+    int length = serialized.remaining();
+    if (bufferType.equals("directRotating")) {
+      // more copies than the decode cache has slots, within a bounded amount of direct memory
+      binaries = new ByteBuffer[(int) Math.max(2, Math.min(ROTATING_BUFFERS, ROTATING_BYTES / length))];
+    } else {
+      binaries = new ByteBuffer[1];
+    }
+    for (int i = 0; i < binaries.length; i++) {
+      if (bufferType.equals("direct") || bufferType.equals("directRotating")) {
+        binaries[i] = ByteBuffer.allocateDirect(length);
+      } else if (bufferType.equals("heap")) {
+        binaries[i] = ByteBuffer.allocate(length);
+      } else {
+        throw new IllegalArgumentException("Unknown buffer type " + bufferType);
+      }
+      binaries[i].put(serialized.duplicate()).flip();
+    }
+
+    if (!serializer.read(nextBinary()).equals(value) || !serializer.equals(equalValue, nextBinary())) {
+      throw new AssertionError(serializerType + " does not round-trip a " + size + " chars String");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    Object s = serializer;
+    if (s instanceof CachingCompactJavaSerializer) {
+      System.out.printf("decode cache hit ratio: %.1f%%\n", ((CachingCompactJavaSerializer) s).hitRatio() * 100.0);
+    }
+  }
+
+  private ByteBuffer nextBinary() {
+    ByteBuffer binary = binaries[next];
+    if (++next == binaries.length) {
+      next = 0;
+    }
+    return binary.duplicate();
+  }
+
+  @Benchmark
+  public ByteBuffer serialize() throws Exception {
+    return serializer.serialize(value);
+  }
+
+  @Benchmark
+  public String read() throws Exception {
+    return serializer.read(nextBinary());
+  }
+
+  @Benchmark
+  public boolean equalsStored() throws Exception {
+    return serializer.equals(equalValue, nextBinary());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Serializer<String> createSerializer(String type) {
+    ClassLoader loader = SerializerBenchmark.class.getClassLoader();
+    if (type.equals("StringCharset")) {
+      return new StringCharsetSerializer(loader);
+    } else if (type.equals("StringAsChar")) {
+      return new StringAsCharSerializer(loader);
+    } else if (type.equals("CachingCompactJava")) {
+      return (Serializer) new CachingCompactJavaSerializer(loader);
+    } else if (type.equals("ClassCachingCompactJava")) {
+      return new ClassCachingCompactJavaSerializer<String>(loader);
+    } else if (type.equals("ClassCachingCompactJavaCompare")) {
+      return new ClassCachingCompactJavaSerializer<String>(loader, true);
+    } else if (type.equals("CompactJava")) {
+      return (Serializer) new CompactJavaSerializer(loader);
+    }
+    throw new IllegalArgumentException("Unknown serializer " + type);
+  }
+
+  public static void main(String[] args) throws Exception {
+    File reportPath = new File("target/jmh/" + SerializerBenchmark.class.getName().replace('.', '/'));
+    reportPath.mkdirs();
+
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .parent(commandLineOptions)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.CSV)
+        .result(new File(reportPath, "results.csv").getPath());
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      options.include(SerializerBenchmark.class.getName());
+    }
+    new Runner(options.build()).run();
+  }
+
+}
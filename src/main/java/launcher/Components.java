@@ -0,0 +1,160 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.ObjectGenerator;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.StringGenerator;
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.serialization.Serializer;
+import utils.CachingCompactJavaSerializer;
+import utils.ClassCachingCompactJavaSerializer;
+import utils.CompressingSerializer;
+import utils.ConstantStringGenerator;
+import utils.ConstantStringWrapperGenerator;
+import utils.DirectBufferSerializer;
+import utils.DistinctStringGenerator;
+import utils.EncryptingSerializer;
+import utils.FieldSerializer;
+import utils.LongSerializer;
+import utils.LongWrapper;
+import utils.LongWrapperGenerator;
+import utils.StreamingSerializer;
+import utils.StringAsCharSerializer;
+import utils.StringCharsetSerializer;
+import utils.StringWrapper;
+import utils.StringWrapperGenerator;
+
+/**
+ * Creates the key/value generators and serializers named in scenario files.
+ * <p/>
+ * Generators : long, longWrapper, string:length, constantString:length, distinctString:length:distinctValues,
+ * stringWrapper:length, constantStringWrapper:length
+ * <br/>
+ * Serializers : default, compactJava, caching, classCaching, field, stringAsChar, stringCharset, longFixed,
+ * longVarint, and the compressed(...), encrypted(...) and direct(...) wrappers
+ *
+ * @author Ludovic Orban
+ */
+public class Components {
+
+  public static class Generator<T> {
+    private final Class<T> type;
+    private final ObjectGenerator<T> generator;
+
+    Generator(Class<T> type, ObjectGenerator<T> generator) {
+      this.type = type;
+      this.generator = generator;
+    }
+
+    public Class<T> getType() {
+      return type;
+    }
+
+    public ObjectGenerator<T> getGenerator() {
+      return generator;
+    }
+  }
+
+  public static Generator<?> generator(String spec) {
+    String[] parts = spec.split(":");
+    String name = parts[0];
+    if (name.equals("long")) {
+      return new Generator<Long>(Long.class, new LongGenerator());
+    } else if (name.equals("longWrapper")) {
+      return new Generator<LongWrapper>(LongWrapper.class, new LongWrapperGenerator());
+    } else if (name.equals("string")) {
+      return new Generator<String>(String.class, new StringGenerator(intArgument(spec, parts, 1)));
+    } else if (name.equals("constantString")) {
+      return new Generator<String>(String.class, new ConstantStringGenerator(intArgument(spec, parts, 1)));
+    } else if (name.equals("distinctString")) {
+      return new Generator<String>(String.class, new DistinctStringGenerator(intArgument(spec, parts, 1), intArgument(spec, parts, 2)));
+    } else if (name.equals("stringWrapper")) {
+      return new Generator<StringWrapper>(StringWrapper.class, new StringWrapperGenerator(intArgument(spec, parts, 1)));
+    } else if (name.equals("constantStringWrapper")) {
+      return new Generator<StringWrapper>(StringWrapper.class, new ConstantStringWrapperGenerator(intArgument(spec, parts, 1)));
+    }
+    throw new IllegalArgumentException("Unknown generator " + spec);
+  }
+
+  /**
+   * @return the named serializer for the given type, or null to keep Ehcache's default one
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Serializer<T> serializer(String spec, Class<T> type) {
+    ClassLoader loader = ClassLoader.getSystemClassLoader();
+    int open = spec.indexOf('(');
+    if (open > 0) {
+      if (!spec.endsWith(")")) {
+        throw new IllegalArgumentException("Unbalanced parentheses in serializer " + spec);
+      }
+      String wrapper = spec.substring(0, open);
+      Serializer<T> inner = serializer(spec.substring(open + 1, spec.length() - 1), type);
+      if (inner == null) {
+        throw new IllegalArgumentException("Serializer " + wrapper + " cannot wrap Ehcache's default serializer");
+      }
+      if (wrapper.equals("compressed")) {
+        return new CompressingSerializer<T>(inner);
+      } else if (wrapper.equals("encrypted")) {
+        return new EncryptingSerializer<T>(inner);
+      } else if (wrapper.equals("direct")) {
+        if (!(inner instanceof StreamingSerializer)) {
+          throw new IllegalArgumentException("Serializer direct needs a streaming serializer, not " + inner.getClass().getSimpleName());
+        }
+        return new DirectBufferSerializer<T>((StreamingSerializer<T>) inner);
+      }
+      throw new IllegalArgumentException("Unknown serializer wrapper " + wrapper);
+    }
+
+    if (spec.equals("default")) {
+      return null;
+    } else if (spec.equals("compactJava")) {
+      return (Serializer<T>) new CompactJavaSerializer(loader);
+    } else if (spec.equals("caching")) {
+      return (Serializer<T>) new CachingCompactJavaSerializer(loader);
+    } else if (spec.equals("classCaching")) {
+      return new ClassCachingCompactJavaSerializer<T>(loader);
+    } else if (spec.equals("field")) {
+      return FieldSerializer.forClass(type, loader);
+    } else if (spec.equals("stringAsChar")) {
+      checkType(spec, type, String.class);
+      return (Serializer<T>) new StringAsCharSerializer();
+    } else if (spec.equals("stringCharset")) {
+      checkType(spec, type, String.class);
+      return (Serializer<T>) new StringCharsetSerializer();
+    } else if (spec.equals("longFixed")) {
+      checkType(spec, type, Long.class);
+      return (Serializer<T>) new LongSerializer(false);
+    } else if (spec.equals("longVarint")) {
+      checkType(spec, type, Long.class);
+      return (Serializer<T>) new LongSerializer(true);
+    }
+    throw new IllegalArgumentException("Unknown serializer " + spec);
+  }
+
+  private static void checkType(String spec, Class<?> type, Class<?> expected) {
+    if (type != expected) {
+      throw new IllegalArgumentException("Serializer " + spec + " only supports " + expected.getSimpleName() + ", not " + type.getSimpleName());
+    }
+  }
+
+  private static int intArgument(String spec, String[] parts, int index) {
+    if (parts.length <= index) {
+      throw new IllegalArgumentException("Missing argument " + index + " in generator " + spec);
+    }
+    return Integer.parseInt(parts[index]);
+  }
+}
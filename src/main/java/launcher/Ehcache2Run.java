@@ -0,0 +1,171 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.Operation;
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.SequenceGenerator;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache2.CacheConfig;
+import io.rainfall.ehcache2.Ehcache2Operations;
+import io.rainfall.ehcache2.operation.MixedOperation;
+import io.rainfall.ehcache2.operation.SequencedGetOperation;
+import io.rainfall.statistics.StatisticsPeekHolder;
+import io.rainfall.unit.TimeDivision;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import utils.Ehcache2BulkLoader;
+import utils.KeyDistributions;
+import utils.MixedResult;
+import utils.MixedWorkload;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+
+/**
+ * Runs a scenario run against Ehcache 2, which has no pluggable serializers.
+ *
+ * @author Ludovic Orban
+ */
+class Ehcache2Run {
+
+  @SuppressWarnings("unchecked")
+  static StatisticsPeekHolder run(RunDescriptor run, File reportPath, File persistencePath) throws Exception {
+    if (!run.get("keySerializer").equals("default") || !run.get("valueSerializer").equals("default")) {
+      throw new IllegalArgumentException("Ehcache 2 only supports the default serializers");
+    }
+    Components.Generator keys = Components.generator(run.get("keys"));
+    Components.Generator values = Components.generator(run.get("values"));
+
+    System.setProperty("com.tc.productkey.path", System.getProperty("user.home") + "/.tc/terracotta-license.key");
+    Configuration configuration = new Configuration();
+    CacheConfiguration cacheConfiguration = new CacheConfiguration("cache1", run.getInt("tier.heap"));
+    long offheap = run.getBytes("tier.offheap");
+    if (offheap > 0) {
+      cacheConfiguration.setMaxBytesLocalOffHeap(offheap);
+    }
+    long disk = run.getBytes("tier.disk");
+    if (disk > 0) {
+      cacheConfiguration.setMaxBytesLocalDisk(disk);
+      configuration.diskStore(new DiskStoreConfiguration().path(persistencePath.getAbsolutePath()));
+    }
+    if (run.get("copier").equals("serializing")) {
+      cacheConfiguration.setCopyOnRead(true);
+      cacheConfiguration.setCopyOnWrite(true);
+    } else if (!run.get("copier").equals("reference")) {
+      throw new IllegalArgumentException("Unknown copier " + run.get("copier") + ", expected reference or serializing");
+    }
+    configuration.addCache(cacheConfiguration);
+    CacheManager cacheManager = new CacheManager(configuration);
+
+    try {
+      Cache cache1 = cacheManager.getCache("cache1");
+
+      CacheConfig cacheConfig = new CacheConfig();
+      cacheConfig.caches(cache1);
+
+      int nbElements = run.getInt("entries");
+      String workload = run.get("workload");
+      if (workload.equals("readonly") || workload.equals("mixed")) {
+        new Ehcache2BulkLoader(cache1, keys.getGenerator(), values.getGenerator(), nbElements, run.getThreads("loadThreads"),
+            run.getInt("loadBatch"), disk > 0 ? persistencePath : null).load(run.getTiers());
+      }
+
+      if (workload.equals("readonly")) {
+        System.out.println("testing...");
+        SequenceGenerator keySequence = KeyDistributions.parse(run.get("distribution"), nbElements);
+        Operation getOperation;
+        if (keySequence != null) {
+          getOperation = new SequencedGetOperation(keySequence).using(keys.getGenerator(), values.getGenerator());
+        } else {
+          getOperation = Ehcache2Operations.get(keys.getType(), values.getType()).using(keys.getGenerator(), values.getGenerator())
+              .atRandom(run.getDistribution("distribution"), 0, nbElements, nbElements / 10);
+        }
+        Shaping shaping = new Shaping(run, reportPath, "get");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(getOperation)
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      } else if (workload.equals("writeonly")) {
+        System.out.println("testing...");
+        Shaping shaping = new Shaping(run, reportPath, "put");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(Ehcache2Operations.put(keys.getType(), values.getType()).using(keys.getGenerator(), values.getGenerator())
+                          .sequentially())
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.PUT}).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      } else if (workload.equals("mixed")) {
+        System.out.println("testing...");
+        SequenceGenerator keySequence = KeyDistributions.parse(run.get("distribution"), nbElements);
+        MixedWorkload mixedWorkload = keySequence != null ? new MixedWorkload(run.get("mix"), keySequence)
+            : new MixedWorkload(run.get("mix"), nbElements, run.getInt("hotKeys"), run.getInt("hotAccess"));
+        Shaping shaping = new Shaping(run, reportPath, "mixed");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(new MixedOperation(mixedWorkload, keys.getGenerator(), values.getGenerator()))
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(MixedResult.class, MixedResult.values()).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      }
+      if (workload.equals("replay")) {
+        throw new IllegalArgumentException("The replay workload is only supported on ehcache3");
+      }
+      throw new IllegalArgumentException("Unknown workload " + workload + ", expected readonly, writeonly or mixed");
+    } finally {
+      cacheManager.shutdown();
+    }
+  }
+
+}
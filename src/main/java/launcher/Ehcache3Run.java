@@ -0,0 +1,220 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.Operation;
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.SequenceGenerator;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.ehcache3.operation.MixedOperation;
+import io.rainfall.ehcache3.operation.SequencedGetOperation;
+import io.rainfall.ehcache3.operation.TraceReplayOperation;
+import io.rainfall.statistics.StatisticsPeekHolder;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.config.persistence.CacheManagerPersistenceConfiguration;
+import org.ehcache.spi.serialization.Serializer;
+import utils.DirectBufferSerializer;
+import utils.Ehcache3BulkLoader;
+import utils.KeyDistributions;
+import utils.LatencyRecorder;
+import utils.MixedResult;
+import utils.MixedWorkload;
+import utils.TraceReader;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+
+/**
+ * Runs a scenario run against Ehcache 3.
+ *
+ * @author Ludovic Orban
+ */
+class Ehcache3Run {
+
+  @SuppressWarnings("unchecked")
+  static StatisticsPeekHolder run(RunDescriptor run, File reportPath, File persistencePath) throws Exception {
+    Components.Generator keys = Components.generator(run.get("keys"));
+    Components.Generator values = Components.generator(run.get("values"));
+
+    ResourcePoolsBuilder resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(run.getLong("tier.heap"), EntryUnit.ENTRIES);
+    long offheap = run.getBytes("tier.offheap");
+    if (offheap > 0) {
+      resourcePools = resourcePools.offheap(offheap, MemoryUnit.B);
+    }
+    long disk = run.getBytes("tier.disk");
+    if (disk > 0) {
+      resourcePools = resourcePools.disk(disk, MemoryUnit.B);
+    }
+
+    CacheConfigurationBuilder cacheConfigurationBuilder = CacheConfigurationBuilder.newCacheConfigurationBuilder(keys.getType(), values.getType())
+        .withResourcePools(resourcePools);
+    Serializer keySerializer = Components.serializer(run.get("keySerializer"), keys.getType());
+    if (keySerializer != null) {
+      cacheConfigurationBuilder = cacheConfigurationBuilder.withKeySerializer(keySerializer);
+    }
+    Serializer valueSerializer = Components.serializer(run.get("valueSerializer"), values.getType());
+    if (valueSerializer != null) {
+      cacheConfigurationBuilder = cacheConfigurationBuilder.withValueSerializer(valueSerializer);
+    }
+    if (run.get("copier").equals("serializing")) {
+      if (keySerializer instanceof DirectBufferSerializer || valueSerializer instanceof DirectBufferSerializer) {
+        // the serializing copiers keep the returned buffer, which direct reuses for the next serialization
+        throw new IllegalArgumentException("The direct serializer cannot be used with the serializing copier");
+      }
+      cacheConfigurationBuilder = cacheConfigurationBuilder.withKeySerializingCopier().withValueSerializingCopier();
+    } else if (!run.get("copier").equals("reference")) {
+      throw new IllegalArgumentException("Unknown copier " + run.get("copier") + ", expected reference or serializing");
+    }
+
+    CacheManagerBuilder cacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder()
+        .withCache("cache1", cacheConfigurationBuilder);
+    if (disk > 0) {
+      cacheManagerBuilder = cacheManagerBuilder.with(new CacheManagerPersistenceConfiguration(persistencePath));
+    }
+    CacheManager cacheManager = cacheManagerBuilder.build(true);
+
+    try {
+      Cache cache1 = cacheManager.getCache("cache1", keys.getType(), values.getType());
+
+      CacheConfig cacheConfig = new CacheConfig();
+      cacheConfig.cache("cache1", cache1);
+
+      int nbElements = run.getInt("entries");
+      String workload = run.get("workload");
+      if (workload.equals("readonly") || workload.equals("mixed")) {
+        new Ehcache3BulkLoader(cache1, keys.getGenerator(), values.getGenerator(), nbElements, run.getThreads("loadThreads"),
+            run.getInt("loadBatch"), disk > 0 ? persistencePath : null).load(run.getTiers());
+      }
+
+      if (workload.equals("readonly")) {
+        System.out.println("testing...");
+        SequenceGenerator keySequence = KeyDistributions.parse(run.get("distribution"), nbElements);
+        Operation getOperation;
+        if (keySequence != null) {
+          getOperation = new SequencedGetOperation(keySequence).using(keys.getGenerator(), values.getGenerator());
+        } else {
+          getOperation = Ehcache3Operations.get(keys.getType(), values.getType()).using(keys.getGenerator(), values.getGenerator())
+              .atRandom(run.getDistribution("distribution"), 0, nbElements, nbElements / 10);
+        }
+        Shaping shaping = new Shaping(run, reportPath, "get");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(getOperation)
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      } else if (workload.equals("writeonly")) {
+        System.out.println("testing...");
+        Shaping shaping = new Shaping(run, reportPath, "put");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(Ehcache3Operations.put(keys.getType(), values.getType()).using(keys.getGenerator(), values.getGenerator())
+                          .sequentially())
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.PUT}).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      } else if (workload.equals("mixed")) {
+        System.out.println("testing...");
+        SequenceGenerator keySequence = KeyDistributions.parse(run.get("distribution"), nbElements);
+        MixedWorkload mixedWorkload = keySequence != null ? new MixedWorkload(run.get("mix"), keySequence)
+            : new MixedWorkload(run.get("mix"), nbElements, run.getInt("hotKeys"), run.getInt("hotAccess"));
+        Shaping shaping = new Shaping(run, reportPath, "mixed");
+        try {
+          return Runner.setUp(
+              Scenario.scenario("Testing phase")
+                  .exec(
+                      shaping.wrap(new MixedOperation(mixedWorkload, keys.getGenerator(), values.getGenerator()))
+                  ))
+              .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+              .config(
+                  ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                  report(MixedResult.class, MixedResult.values()).log(html(reportPath.getPath())),
+                  cacheConfig)
+              .start();
+        } finally {
+          shaping.finish();
+        }
+      } else if (workload.equals("replay")) {
+        if (keys.getType() != Long.class || values.getType() != String.class) {
+          throw new IllegalArgumentException("The replay workload needs long keys and string values");
+        }
+        TraceReader traceReader = new TraceReader(new File(run.get("trace")));
+        try {
+          String speed = run.get("replaySpeed");
+          LatencyRecorder latencyRecorder = new LatencyRecorder(reportPath, "replay");
+          TraceReplayOperation replayOperation = new TraceReplayOperation(traceReader,
+              speed.equals("max") ? 0.0 : Double.parseDouble(speed), latencyRecorder);
+          System.out.println("loaded " + replayOperation.preload(cache1) + " keys read by the trace");
+          System.out.println("testing...");
+          latencyRecorder.start();
+          try {
+            return Runner.setUp(
+                Scenario.scenario("Testing phase")
+                    .exec(
+                        replayOperation
+                    ))
+                .executed(during(run.getSeconds("duration"), TimeDivision.seconds))
+                .config(
+                    ConcurrencyConfig.concurrencyConfig().threads(run.getThreads("threads")),
+                    report(MixedResult.class, MixedResult.values()).log(html(reportPath.getPath())),
+                    cacheConfig)
+                .start();
+          } finally {
+            latencyRecorder.stop();
+          }
+        } finally {
+          traceReader.close();
+        }
+      }
+      throw new IllegalArgumentException("Unknown workload " + workload + ", expected readonly, writeonly, mixed or replay");
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+}
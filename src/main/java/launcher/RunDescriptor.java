@@ -0,0 +1,144 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.generator.sequence.Distribution;
+import net.sf.ehcache.config.MemoryUnit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One run of a scenario: a single value for every parameter.
+ *
+ * @author Ludovic Orban
+ */
+public class RunDescriptor {
+
+  private final String scenarioName;
+  private final Map<String, String> parameters;
+  private final List<String> varyingParameters;
+
+  RunDescriptor(String scenarioName, Map<String, String> parameters, List<String> varyingParameters) {
+    this.scenarioName = scenarioName;
+    this.parameters = Collections.unmodifiableMap(parameters);
+    this.varyingParameters = varyingParameters;
+  }
+
+  public String getScenarioName() {
+    return scenarioName;
+  }
+
+  /**
+   * @return a name made of the parameters that differ between the runs of the scenario, usable as a directory name
+   */
+  public String getName() {
+    if (varyingParameters.isEmpty()) {
+      return "run";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String key : varyingParameters) {
+      if (sb.length() > 0) {
+        sb.append('_');
+      }
+      sb.append(key).append('=').append(parameters.get(key));
+    }
+    return sb.toString().replaceAll("[^A-Za-z0-9=._-]", "-");
+  }
+
+  /**
+   * @return the tier layout, e.g. heap 1000 + offheap 32M + disk 2G
+   */
+  public String getTiers() {
+    StringBuilder sb = new StringBuilder("heap ").append(get("tier.heap"));
+    if (!get("tier.offheap").isEmpty()) {
+      sb.append(" + offheap ").append(get("tier.offheap"));
+    }
+    if (!get("tier.disk").isEmpty()) {
+      sb.append(" + disk ").append(get("tier.disk"));
+    }
+    return sb.toString();
+  }
+
+  public Map<String, String> getParameters() {
+    return parameters;
+  }
+
+  public String get(String key) {
+    String value = parameters.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Unknown parameter " + key);
+    }
+    return value;
+  }
+
+  public int getInt(String key) {
+    return Integer.parseInt(get(key));
+  }
+
+  public long getLong(String key) {
+    return Long.parseLong(get(key));
+  }
+
+  /**
+   * @return a size such as 512M or 2G in bytes, 0 when empty
+   */
+  public long getBytes(String key) {
+    String value = get(key);
+    return value.isEmpty() ? 0L : MemoryUnit.parseSizeInBytes(value);
+  }
+
+  /**
+   * @return a duration such as 90s, 5m or 1h in seconds
+   */
+  public int getSeconds(String key) {
+    String value = get(key);
+    char unit = value.charAt(value.length() - 1);
+    if (Character.isDigit(unit)) {
+      return Integer.parseInt(value);
+    }
+    int amount = Integer.parseInt(value.substring(0, value.length() - 1));
+    switch (unit) {
+      case 's':
+        return amount;
+      case 'm':
+        return amount * 60;
+      case 'h':
+        return amount * 3600;
+      default:
+        throw new IllegalArgumentException("Invalid duration " + value + " for " + key + ", expected a number of s, m or h");
+    }
+  }
+
+  /**
+   * @return a thread count, where cpus stands for the number of available processors
+   */
+  public int getThreads(String key) {
+    String value = get(key);
+    return value.equals("cpus") ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value);
+  }
+
+  public Distribution getDistribution(String key) {
+    return Distribution.valueOf(get(key).toUpperCase(Locale.ROOT));
+  }
+
+  @Override
+  public String toString() {
+    return scenarioName + "/" + getName() + " " + parameters;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A scenario file, in properties format. Every parameter may list several comma separated values, the scenario then
+ * expands to one run per combination of values. Parameters that are not set keep their default value.
+ *
+ * @author Ludovic Orban
+ */
+public class ScenarioDescriptor {
+
+  static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+  static {
+    // ehcache2 or ehcache3
+    DEFAULTS.put("product", "ehcache3");
+    // readonly loads the cache then reads it, writeonly only writes, mixed loads the cache then runs the mix,
+    // replay loads the keys read by the trace then replays it, ehcache3 only
+    DEFAULTS.put("workload", "readonly");
+    // heap tier in entries, offheap and disk tiers in bytes such as 512M or 2G, empty when absent
+    DEFAULTS.put("tier.heap", "1000");
+    DEFAULTS.put("tier.offheap", "");
+    DEFAULTS.put("tier.disk", "");
+    // reference or serializing
+    DEFAULTS.put("copier", "reference");
+    // see Components for the generator and serializer names
+    DEFAULTS.put("keys", "long");
+    DEFAULTS.put("values", "string:4096");
+    DEFAULTS.put("keySerializer", "default");
+    DEFAULTS.put("valueSerializer", "default");
+    // number of keys loaded, and read in the testing phase
+    DEFAULTS.put("entries", "100000");
+    // any io.rainfall.generator.sequence.Distribution, in any case, or one of utils.KeyDistributions
+    DEFAULTS.put("distribution", "gaussian");
+    // operation weights and hot key split of the mixed workload, see utils.MixedWorkload, the hot key split is
+    // replaced by the distribution when it is one of utils.KeyDistributions
+    DEFAULTS.put("mix", "get:80/put:10/remove:2/putIfAbsent:4/replace:4");
+    DEFAULTS.put("hotKeys", "20");
+    DEFAULTS.put("hotAccess", "80");
+    // thread counts, or cpus, the loading threads each putting their own partition of the keys
+    DEFAULTS.put("loadThreads", "1");
+    // keys per putAll when loading, 1 to load with single puts
+    DEFAULTS.put("loadBatch", "1");
+    DEFAULTS.put("threads", "cpus");
+    DEFAULTS.put("duration", "120s");
+    // traffic shape of the testing phase, see utils.TrafficShape, empty to run unthrottled
+    DEFAULTS.put("shape", "");
+    // key trace of the replay workload, see utils.TraceWriter, and its speed relative to the recording, or max
+    DEFAULTS.put("trace", "");
+    DEFAULTS.put("replaySpeed", "1");
+  }
+
+  private final String name;
+  private final Map<String, List<String>> parameters;
+
+  ScenarioDescriptor(String name, Map<String, List<String>> parameters) {
+    this.name = name;
+    this.parameters = parameters;
+  }
+
+  public static ScenarioDescriptor load(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+
+    for (String key : properties.stringPropertyNames()) {
+      if (!DEFAULTS.containsKey(key)) {
+        throw new IllegalArgumentException("Unknown parameter " + key + " in " + file + ", expected one of " + DEFAULTS.keySet());
+      }
+    }
+
+    Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+    for (Map.Entry<String, String> entry : DEFAULTS.entrySet()) {
+      String key = entry.getKey();
+      List<String> values = new ArrayList<String>();
+      for (String value : properties.getProperty(key, entry.getValue()).split(",", -1)) {
+        values.add(value.trim());
+      }
+      parameters.put(key, values);
+    }
+
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return new ScenarioDescriptor(dot > 0 ? name.substring(0, dot) : name, parameters);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return one run per combination of parameter values, the first parameters varying the slowest
+   */
+  public List<RunDescriptor> expand() {
+    List<String> varying = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+      if (entry.getValue().size() > 1) {
+        varying.add(entry.getKey());
+      }
+    }
+
+    List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+    combinations.add(new LinkedHashMap<String, String>());
+    for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+      List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+      for (Map<String, String> combination : combinations) {
+        for (String value : entry.getValue()) {
+          Map<String, String> copy = new LinkedHashMap<String, String>(combination);
+          copy.put(entry.getKey(), value);
+          expanded.add(copy);
+        }
+      }
+      combinations = expanded;
+    }
+
+    List<RunDescriptor> runs = new ArrayList<RunDescriptor>();
+    for (Map<String, String> combination : combinations) {
+      runs.add(new RunDescriptor(name, combination, varying));
+    }
+    return runs;
+  }
+}
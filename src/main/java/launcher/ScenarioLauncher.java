@@ -0,0 +1,116 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.statistics.StatisticsPeekHolder;
+import utils.MixedResult;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Runs every combination of parameters of a scenario file, one after the other, and sums them up in a summary.csv
+ * next to the per-run reports.
+ * <p/>
+ * mvn compile exec:exec -Dtest=launcher.ScenarioLauncher -Dscenario=src/main/resources/scenarios/readonly-offheap.properties
+ * <br/>
+ * Add -DdryRun=true to only list the runs.
+ *
+ * @author Ludovic Orban
+ */
+public class ScenarioLauncher {
+
+  public static void main(String[] args) throws Exception {
+    String scenarioPath = args.length > 0 ? args[0] : System.getProperty("scenario", "");
+    if (scenarioPath.isEmpty()) {
+      System.err.println("usage: ScenarioLauncher <scenario file>, or -Dscenario=<scenario file>");
+      System.exit(1);
+    }
+
+    ScenarioDescriptor scenario = ScenarioDescriptor.load(new File(scenarioPath));
+    List<RunDescriptor> runs = scenario.expand();
+    System.out.println(scenario.getName() + ": " + runs.size() + " run(s)");
+    for (RunDescriptor run : runs) {
+      System.out.println("  " + run.getName());
+    }
+    if (Boolean.getBoolean("dryRun")) {
+      System.exit(0);
+    }
+
+    File reportRoot = new File("target/rainfall/scenarios/" + scenario.getName());
+    reportRoot.mkdirs();
+    File persistencePath = new File(reportRoot, "persistence");
+    PrintWriter summary = new PrintWriter(new FileWriter(new File(reportRoot, "summary.csv")));
+    try {
+      summary.print("run");
+      for (String key : ScenarioDescriptor.DEFAULTS.keySet()) {
+        summary.print("," + key);
+      }
+      summary.println(",tps");
+
+      for (int i = 0; i < runs.size(); i++) {
+        RunDescriptor run = runs.get(i);
+        System.out.println("=== run " + (i + 1) + "/" + runs.size() + " : " + run);
+
+        String tps;
+        try {
+          tps = Long.toString(execute(run, new File(reportRoot, run.getName()), persistencePath));
+        } catch (Exception e) {
+          // keep going, an overnight sweep should not stop at the first bad combination
+          e.printStackTrace();
+          tps = "failed";
+        }
+        System.out.println("---> TPS " + tps);
+
+        summary.print(run.getName());
+        for (String value : run.getParameters().values()) {
+          summary.print("," + value);
+        }
+        summary.println("," + tps);
+        summary.flush();
+      }
+    } finally {
+      summary.close();
+    }
+
+    System.exit(0);
+  }
+
+  private static long execute(RunDescriptor run, File reportPath, File persistencePath) throws Exception {
+    String product = run.get("product");
+    StatisticsPeekHolder finalStats;
+    if (product.equals("ehcache3")) {
+      finalStats = Ehcache3Run.run(run, reportPath, persistencePath);
+    } else if (product.equals("ehcache2")) {
+      finalStats = Ehcache2Run.run(run, reportPath, persistencePath);
+    } else {
+      throw new IllegalArgumentException("Unknown product " + product + ", expected ehcache2 or ehcache3");
+    }
+    if (run.get("workload").equals("mixed") || run.get("workload").equals("replay")) {
+      long tps = 0L;
+      for (MixedResult result : MixedResult.values()) {
+        tps += finalStats.getTotalStatisticsPeeks().getCumulativeTps(result);
+      }
+      return tps;
+    }
+    EhcacheResult result = run.get("workload").equals("writeonly") ? EhcacheResult.PUT : EhcacheResult.GET;
+    return finalStats.getTotalStatisticsPeeks().getCumulativeTps(result);
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package launcher;
+
+import io.rainfall.Operation;
+import utils.LatencyRecorder;
+import utils.ShapedOperation;
+import utils.TrafficShape;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the testing phase operation of a run along the run's traffic shape, if it has one, recording its latencies
+ * to the run's report directory.
+ *
+ * @author Ludovic Orban
+ */
+class Shaping {
+
+  private final TrafficShape shape;
+  private final LatencyRecorder latencyRecorder;
+  private ShapedOperation shapedOperation;
+
+  Shaping(RunDescriptor run, File reportPath, String name) throws IOException {
+    String spec = run.get("shape");
+    this.shape = spec.isEmpty() ? null : TrafficShape.parse(spec);
+    this.latencyRecorder = shape == null ? null : new LatencyRecorder(reportPath, name);
+  }
+
+  Operation wrap(Operation operation) throws IOException {
+    if (shape == null) {
+      return operation;
+    }
+    latencyRecorder.start();
+    shapedOperation = new ShapedOperation(operation, shape, latencyRecorder);
+    return shapedOperation;
+  }
+
+  void finish() throws IOException, InterruptedException {
+    if (shapedOperation != null) {
+      shapedOperation.close();
+      latencyRecorder.stop();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package mixed.disk2tiers;
+
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.ehcache3.operation.MixedOperation;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.StringGenerator;
+import io.rainfall.statistics.StatisticsPeekHolder;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.config.persistence.CacheManagerPersistenceConfiguration;
+import utils.MixedResult;
+import utils.MixedWorkload;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+import static io.rainfall.execution.Executions.times;
+
+/**
+ * Goal : run gets, puts, removes, putIfAbsents and replaces against the same keys of heap and disk tiers, so that
+ * invalidations and faults between tiers happen while the cache is read
+ * <p/>
+ * -Dmix=get:80,put:10,remove:2,putIfAbsent:4,replace:4 sets the operation weights, -DhotKeys=20 -DhotAccess=80 makes
+ * 20% of the keys get 80% of the operations, -DkeyDistribution=zipfian:0.99 replaces that split with one of the
+ * utils.KeyDistributions
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3 {
+
+  public static void main(String[] args) throws Exception {
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+        .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES).disk(2, MemoryUnit.GB))
+            .build())
+        .with(new CacheManagerPersistenceConfiguration(new File("target/rainfall/mixed/disk2tiers/ehcache3-persistence")))
+        .build(true);
+
+    Cache<Long, String> cache1 = cacheManager.getCache("cache1", Long.class, String.class);
+
+    LongGenerator keyGenerator = new LongGenerator();
+    StringGenerator valueGenerator = new StringGenerator(4096);
+
+    CacheConfig<Long, String> cacheConfig = new CacheConfig<Long, String>();
+    cacheConfig.cache("cache1", cache1);
+
+    final int nbElementsPerThread = 100000;
+    final File reportPath = new File("target/rainfall/" + Ehcache3.class.getName().replace('.', '/'));
+    Runner.setUp(
+        Scenario.scenario("Loading phase")
+            .exec(
+                Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .sequentially()
+            ))
+        .executed(times(nbElementsPerThread))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(1),
+            report(EhcacheResult.class),
+            cacheConfig)
+        .start();
+
+    System.out.println("testing...");
+
+    MixedWorkload workload = MixedWorkload.fromSystemProperties(nbElementsPerThread);
+    StatisticsPeekHolder finalStats = Runner.setUp(
+        Scenario.scenario("Testing phase")
+            .exec(
+                new MixedOperation<Long, String>(workload, keyGenerator, valueGenerator)
+            ))
+        .executed(during(120, TimeDivision.seconds))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+            report(MixedResult.class, MixedResult.values()).log(html(reportPath.getPath())),
+            cacheConfig)
+        .start();
+
+    for (MixedResult result : MixedResult.values()) {
+      System.out.println("---> " + result + " TPS " + finalStats.getTotalStatisticsPeeks().getCumulativeTps(result));
+    }
+
+    cacheManager.close();
+
+    System.exit(0);
+  }
+
+}
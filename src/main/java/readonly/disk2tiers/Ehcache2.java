@@ -15,12 +15,15 @@
  */
 package readonly.disk2tiers;
 
+import io.rainfall.Operation;
 import io.rainfall.Runner;
 import io.rainfall.Scenario;
+import io.rainfall.SequenceGenerator;
 import io.rainfall.configuration.ConcurrencyConfig;
 import io.rainfall.ehcache.statistics.EhcacheResult;
 import io.rainfall.ehcache2.CacheConfig;
 import io.rainfall.ehcache2.Ehcache2Operations;
+import io.rainfall.ehcache2.operation.SequencedGetOperation;
 import io.rainfall.generator.LongGenerator;
 import io.rainfall.generator.StringGenerator;
 import io.rainfall.generator.sequence.Distribution;
@@ -30,6 +33,7 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.MemoryUnit;
+import utils.KeyDistributions;
 
 import java.io.File;
 import java.util.Timer;
@@ -41,6 +45,9 @@ import static io.rainfall.execution.Executions.during;
 import static io.rainfall.execution.Executions.times;
 
 /**
+ * -DkeyDistribution=zipfian:0.99, scrambledZipfian:0.99 or hotspot:80:20 replaces the gaussian key
+ * distribution, see {@link KeyDistributions}
+ *
  * @author Ludovic Orban
  */
 public class Ehcache2 {
@@ -94,11 +101,16 @@ public class Ehcache2 {
       }
     }, 1000, 1000);
 
+    SequenceGenerator keySequence = KeyDistributions.fromSystemProperty(nbElementsPerThread);
+    Operation getOperation = keySequence != null
+        ? new SequencedGetOperation<Long, String>(keySequence).using(keyGenerator, valueGenerator)
+        : Ehcache2Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+            .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10);
+
     Runner.setUp(
         Scenario.scenario("Testing phase")
             .exec(
-                Ehcache2Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
-                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
+                getOperation
             ))
         .executed(during(120, TimeDivision.seconds))
         .config(
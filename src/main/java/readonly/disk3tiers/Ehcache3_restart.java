@@ -0,0 +1,136 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package readonly.disk3tiers;
+
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.StringGenerator;
+import io.rainfall.generator.sequence.Distribution;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.config.persistence.CacheManagerPersistenceConfiguration;
+import utils.PersistentClassCachingCompactJavaSerializer;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+import static io.rainfall.execution.Executions.times;
+
+/**
+ * Goal : measure how fast a persistent disk tier comes back warm after a restart, thanks to the class descriptor
+ * mappings persisted next to the persistence directory.
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3_restart {
+
+  private static final File PERSISTENCE_DIR = new File("target/rainfall/disk3tiers/ehcache3-restart-persistence");
+
+  public static void main(String[] args) throws Exception {
+    LongGenerator keyGenerator = new LongGenerator();
+    StringGenerator valueGenerator = new StringGenerator(4096);
+
+    final int nbElementsPerThread = 100000;
+    final File reportPath = new File("target/rainfall/" + Ehcache3_restart.class.getName().replace('.', '/'));
+
+    CacheManager cacheManager = createCacheManager();
+    Cache<Long, String> cache1 = cacheManager.getCache("cache1", Long.class, String.class);
+
+    CacheConfig<Long, String> cacheConfig = new CacheConfig<Long, String>();
+    cacheConfig.cache("cache1", cache1);
+
+    Runner.setUp(
+        Scenario.scenario("Loading phase")
+            .exec(
+                Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .sequentially()
+            ))
+        .executed(times(nbElementsPerThread))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(1),
+            report(EhcacheResult.class),
+            cacheConfig)
+        .start();
+
+    cacheManager.close();
+
+    System.out.println("restarting...");
+
+    long start = System.nanoTime();
+    cacheManager = createCacheManager();
+    cache1 = cacheManager.getCache("cache1", Long.class, String.class);
+    long initialized = System.nanoTime();
+    String firstValue = cache1.get(keyGenerator.generate(0L));
+    long firstHit = System.nanoTime();
+
+    if (firstValue == null) {
+      System.out.println("cache did not come back warm, first get missed");
+    }
+    System.out.printf("   cache manager init: %.1f ms\n", (initialized - start) / 1000000.0);
+    System.out.printf("    time to first hit: %.1f ms\n", (firstHit - start) / 1000000.0);
+
+    cacheConfig = new CacheConfig<Long, String>();
+    cacheConfig.cache("cache1", cache1);
+
+    System.out.println("testing...");
+
+    Runner.setUp(
+        Scenario.scenario("Testing phase")
+            .exec(
+                Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
+            ))
+        .executed(during(120, TimeDivision.seconds))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+            report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath())),
+            cacheConfig)
+        .start();
+
+    cacheManager.close();
+
+    System.exit(0);
+  }
+
+  private static CacheManager createCacheManager() {
+    ClassLoader loader = ClassLoader.getSystemClassLoader();
+    return CacheManagerBuilder.newCacheManagerBuilder()
+        .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+            .withKeySerializer(new PersistentClassCachingCompactJavaSerializer<Long>(loader,
+                PersistentClassCachingCompactJavaSerializer.mappingsFile(PERSISTENCE_DIR, "key")))
+            .withValueSerializer(new PersistentClassCachingCompactJavaSerializer<String>(loader,
+                PersistentClassCachingCompactJavaSerializer.mappingsFile(PERSISTENCE_DIR, "value")))
+            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES).offheap(32, MemoryUnit.MB).disk(2, MemoryUnit.GB, true))
+            )
+        .with(new CacheManagerPersistenceConfiguration(PERSISTENCE_DIR))
+        .build(true);
+  }
+
+}
@@ -15,12 +15,15 @@
  */
 package readonly.offheap;
 
+import io.rainfall.Operation;
 import io.rainfall.Runner;
 import io.rainfall.Scenario;
+import io.rainfall.SequenceGenerator;
 import io.rainfall.configuration.ConcurrencyConfig;
 import io.rainfall.ehcache.statistics.EhcacheResult;
 import io.rainfall.ehcache3.CacheConfig;
 import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.ehcache3.operation.SequencedGetOperation;
 import io.rainfall.generator.LongGenerator;
 import io.rainfall.generator.StringGenerator;
 import io.rainfall.generator.sequence.Distribution;
@@ -34,6 +37,11 @@ import org.ehcache.config.units.EntryUnit;
 import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.core.statistics.AuthoritativeTierOperationOutcomes;
 import org.ehcache.core.statistics.CachingTierOperationOutcomes;
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.serialization.Serializer;
+import utils.Footprint;
+import utils.KeyDistributions;
+import utils.LongSerializer;
 
 import java.io.File;
 import java.util.Timer;
@@ -46,16 +54,24 @@ import static io.rainfall.execution.Executions.times;
 import static utils.Ehcache3Stats.findStat;
 
 /**
+ * -DkeyDistribution=zipfian:0.99, scrambledZipfian:0.99 or hotspot:80:20 replaces the gaussian key
+ * distribution, see {@link KeyDistributions}
+ *
  * @author Ludovic Orban
  */
 public class Ehcache3 {
 
   public static void main(String[] args) throws Exception {
+    LongSerializer keySerializer = LongSerializer.fromSystemProperty();
+    CacheConfigurationBuilder<Long, String> cacheConfigurationBuilder = CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+        .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+            .heap(1000, EntryUnit.ENTRIES).offheap(2, MemoryUnit.GB));
+    if (keySerializer != null) {
+      cacheConfigurationBuilder = cacheConfigurationBuilder.withKeySerializer(keySerializer);
+    }
+
     CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
-        .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
-            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
-                .heap(1000, EntryUnit.ENTRIES).offheap(2, MemoryUnit.GB))
-            .build())
+        .withCache("cache1", cacheConfigurationBuilder.build())
         .build(true);
 
     final Cache<Long, String> cache1 = cacheManager.getCache("cache1", Long.class, String.class);
@@ -81,6 +97,11 @@ public class Ehcache3 {
             cacheConfig)
         .start();
 
+    if (keySerializer != null) {
+      Footprint.printSaving("key", keyGenerator, nbElementsPerThread, keySerializer,
+          (Serializer) new CompactJavaSerializer(ClassLoader.getSystemClassLoader()));
+    }
+
     System.out.println("testing...");
 
     Timer t = new Timer(true);
@@ -98,11 +119,16 @@ public class Ehcache3 {
     }, 1000, 1000);
 
 
+    SequenceGenerator keySequence = KeyDistributions.fromSystemProperty(nbElementsPerThread);
+    Operation getOperation = keySequence != null
+        ? new SequencedGetOperation<Long, String>(keySequence).using(keyGenerator, valueGenerator)
+        : Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+            .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10);
+
     Runner.setUp(
         Scenario.scenario("Testing phase")
             .exec(
-                Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
-                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
+                getOperation
             ))
         .executed(during(120, TimeDivision.seconds))
         .config(
@@ -0,0 +1,178 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package readonly.offheap;
+
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.sequence.Distribution;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.statistics.AuthoritativeTierOperationOutcomes;
+import org.ehcache.core.statistics.CachingTierOperationOutcomes;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+import utils.ClassCachingCompactJavaSerializer;
+import utils.DeduplicatingSerializer;
+import utils.DistinctStringGenerator;
+
+import java.io.File;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+import static io.rainfall.execution.Executions.times;
+import static utils.Ehcache3Stats.findStat;
+
+/**
+ * Goal : measure the offheap memory saved by sharing identical values, and the put/get throughput it costs,
+ * from all-identical (-DdistinctValues=1) to all-unique (-DdistinctValues=0) values
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3_dedup {
+
+  public static void main(String[] args) throws Exception {
+    final int distinctValues = Integer.getInteger("distinctValues", 100);
+    final DeduplicatingSerializer<String> valueSerializer = new DeduplicatingSerializer<String>(
+        new ClassCachingCompactJavaSerializer<String>(ClassLoader.getSystemClassLoader()));
+
+    CacheEventListener<Long, String> releasingListener = new CacheEventListener<Long, String>() {
+      @Override
+      public void onEvent(CacheEvent<Long, String> event) {
+        valueSerializer.release(event.getOldValue());
+      }
+    };
+
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+        .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+            .withValueSerializer(valueSerializer)
+            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES).offheap(2, MemoryUnit.GB))
+            .add(CacheEventListenerConfigurationBuilder
+                .newEventListenerConfiguration(releasingListener, EventType.EVICTED, EventType.EXPIRED, EventType.REMOVED, EventType.UPDATED)
+                .unordered().synchronous())
+            .build())
+        .build(true);
+
+    final Cache<Long, String> cache1 = cacheManager.getCache("cache1", Long.class, String.class);
+
+    LongGenerator keyGenerator = new LongGenerator();
+    DistinctStringGenerator valueGenerator = new DistinctStringGenerator(4096, distinctValues);
+
+    CacheConfig<Long, String> cacheConfig = new CacheConfig<Long, String>();
+    cacheConfig.cache("cache1", cache1);
+
+    final int nbElementsPerThread = 100000;
+    final File reportPath = new File("target/rainfall/" + Ehcache3_dedup.class.getName().replace('.', '/'));
+    System.out.println("values: " + valueGenerator.getDescription());
+
+    long start = System.nanoTime();
+    Runner.setUp(
+        Scenario.scenario("Loading phase")
+            .exec(
+                Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .sequentially()
+            ))
+        .executed(times(nbElementsPerThread))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(1),
+            report(EhcacheResult.class),
+            cacheConfig)
+        .start();
+    long loadNanos = System.nanoTime() - start;
+
+    System.out.printf ("load throughput: %.0f puts/s\n", nbElementsPerThread / (loadNanos / 1_000_000_000.0));
+    printFootprint(valueSerializer);
+
+    System.out.println("testing...");
+
+    Timer t = new Timer(true);
+    t.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        long onHeapHits = findStat(cache1, "getOrComputeIfAbsent", "onheap-store").count(CachingTierOperationOutcomes.GetOrComputeIfAbsentOutcome.HIT);
+        long offHeapHits = findStat(cache1, "computeIfAbsentAndFault", "local-offheap").count(AuthoritativeTierOperationOutcomes.ComputeIfAbsentAndFaultOutcome.HIT);
+        long total = onHeapHits + offHeapHits;
+        System.out.println("        heap hits: " + onHeapHits);
+        System.out.println("     offheap hits: " + offHeapHits);
+        System.out.printf ("   heap hit ratio: %.1f%%\n", ((double) onHeapHits / total * 100.0));
+        System.out.printf ("offheap hit ratio: %.1f%%\n", ((double) offHeapHits / total * 100.0));
+        System.out.println("    shared values: " + valueSerializer.sharedValues.sum());
+      }
+    }, 1000, 1000);
+
+
+    Runner.setUp(
+        Scenario.scenario("Testing phase")
+            .exec(
+                Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
+            ))
+        .executed(during(60, TimeDivision.seconds))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+            report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath() + "/get")),
+            cacheConfig)
+        .start();
+
+    // overwrite existing keys so the shared copies of replaced values get released
+    Runner.setUp(
+        Scenario.scenario("Update phase")
+            .exec(
+                Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
+            ))
+        .executed(during(60, TimeDivision.seconds))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+            report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.PUT}).log(html(reportPath.getPath() + "/put")),
+            cacheConfig)
+        .start();
+
+    t.cancel();
+    // no get runs anymore, the copies released by the update phase can be freed
+    System.out.println("  reclaimed values: " + valueSerializer.reclaim());
+    printFootprint(valueSerializer);
+
+    cacheManager.close();
+
+    System.exit(0);
+  }
+
+  private static void printFootprint(DeduplicatingSerializer<?> valueSerializer) {
+    long logical = valueSerializer.logicalBytes.sum();
+    long shared = valueSerializer.sharedBytes.sum();
+    System.out.println("    shared values: " + valueSerializer.sharedValues.sum());
+    System.out.printf ("      value bytes: %d logical, %d shared, %d saved (%.1f%%)\n", logical, shared,
+        valueSerializer.savedBytes(), logical == 0 ? 0.0 : (double) valueSerializer.savedBytes() / logical * 100.0);
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package readonly.offheap;
+
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.SyntaxException;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.StringGenerator;
+import io.rainfall.generator.sequence.Distribution;
+import io.rainfall.statistics.StatisticsPeekHolder;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import utils.ClassCachingCompactJavaSerializer;
+import utils.EncryptingSerializer;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+import static io.rainfall.execution.Executions.times;
+
+/**
+ * Goal : measure the throughput and latency cost of AES-GCM encrypted offheap values against plaintext ones
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3_encrypted {
+
+  public static void main(String[] args) throws Exception {
+    EncryptingSerializer<String> encryptingSerializer = new EncryptingSerializer<String>(
+        new ClassCachingCompactJavaSerializer<String>(ClassLoader.getSystemClassLoader()));
+
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+        .withCache("plaintext", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+            .withValueSerializer(new ClassCachingCompactJavaSerializer<String>(ClassLoader.getSystemClassLoader()))
+            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES).offheap(2, MemoryUnit.GB))
+            .build())
+        .withCache("encrypted", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+            .withValueSerializer(encryptingSerializer)
+            .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES).offheap(2, MemoryUnit.GB))
+            .build())
+        .build(true);
+
+    LongGenerator keyGenerator = new LongGenerator();
+    StringGenerator valueGenerator = new StringGenerator(4096);
+
+    final int nbElementsPerThread = 100000;
+    final File reportPath = new File("target/rainfall/" + Ehcache3_encrypted.class.getName().replace('.', '/'));
+
+    long[] tps = new long[2];
+    String[] cacheNames = {"plaintext", "encrypted"};
+    for (int i = 0; i < cacheNames.length; i++) {
+      CacheConfig<Long, String> cacheConfig = new CacheConfig<Long, String>();
+      cacheConfig.cache(cacheNames[i], cacheManager.getCache(cacheNames[i], Long.class, String.class));
+
+      loadCache(nbElementsPerThread, keyGenerator, valueGenerator, cacheConfig);
+
+      System.out.println("testing " + cacheNames[i] + "...");
+      StatisticsPeekHolder finalStats = Runner.setUp(
+          Scenario.scenario("Testing phase")
+              .exec(
+                  Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+                      .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread / 10)
+              ))
+          .executed(during(60, TimeDivision.seconds))
+          .config(
+              ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+              report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS})
+                  .log(html(reportPath.getPath() + "/" + cacheNames[i])), cacheConfig)
+          .start();
+      tps[i] = finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET);
+    }
+
+    System.out.println("---> plaintext TPS " + tps[0]);
+    System.out.println("---> encrypted TPS " + tps[1]);
+    System.out.printf ("---> encryption cost: %.1f%% TPS, %.0f ns per encryption, %.0f ns per decryption\n",
+        (1.0 - (double) tps[1] / tps[0]) * 100.0, encryptingSerializer.nanosPerEncryption(), encryptingSerializer.nanosPerDecryption());
+
+    cacheManager.close();
+
+    System.exit(0);
+  }
+
+  private static void loadCache(final int nbElementsPerThread, final LongGenerator keyGenerator, final StringGenerator valueGenerator, final CacheConfig<Long, String> cacheConfig) throws SyntaxException {
+    Runner.setUp(
+        Scenario.scenario("Loading phase")
+            .exec(
+                Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                    .sequentially()
+            ))
+        .executed(times(nbElementsPerThread))
+        .config(
+            ConcurrencyConfig.concurrencyConfig().threads(1),
+            report(EhcacheResult.class),
+            cacheConfig)
+        .start();
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package readonly.offheap;
+
+import io.rainfall.Runner;
+import io.rainfall.Scenario;
+import io.rainfall.configuration.ConcurrencyConfig;
+import io.rainfall.ehcache.statistics.EhcacheResult;
+import io.rainfall.ehcache3.CacheConfig;
+import io.rainfall.ehcache3.Ehcache3Operations;
+import io.rainfall.generator.LongGenerator;
+import io.rainfall.generator.sequence.Distribution;
+import io.rainfall.unit.TimeDivision;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.serialization.Serializer;
+import utils.ConstantStringGenerator;
+import utils.DirectBufferSerializer;
+import utils.PeakHeap;
+import utils.StringAsCharSerializer;
+
+import java.io.File;
+
+import static io.rainfall.configuration.ReportingConfig.html;
+import static io.rainfall.configuration.ReportingConfig.report;
+import static io.rainfall.execution.Executions.during;
+import static io.rainfall.execution.Executions.times;
+
+/**
+ * Goal : measure load time, get throughput and peak heap of 64 KB to 8 MB values, depending on how many copies the
+ * value serializer makes (-DvalueSerializer=compactJava|streaming|direct)
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3_largeValues {
+
+  private static final int[] VALUE_SIZES = {64 * 1024, 512 * 1024, 1024 * 1024, 8 * 1024 * 1024};
+
+  public static void main(String[] args) throws Exception {
+    String serializerName = System.getProperty("valueSerializer", "");
+    final File reportPath = new File("target/rainfall/" + Ehcache3_largeValues.class.getName().replace('.', '/'));
+    final long tierSizeInMb = 2048;
+
+    for (int valueSize : VALUE_SIZES) {
+      Serializer<String> valueSerializer = valueSerializer(serializerName);
+      CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+          .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
+              .withValueSerializer(valueSerializer)
+              .withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+                  .heap(10, EntryUnit.ENTRIES).offheap(tierSizeInMb, MemoryUnit.MB))
+              .build())
+          .build(true);
+
+      final Cache<Long, String> cache1 = cacheManager.getCache("cache1", Long.class, String.class);
+
+      LongGenerator keyGenerator = new LongGenerator();
+      ConstantStringGenerator valueGenerator = new ConstantStringGenerator(valueSize);
+
+      CacheConfig<Long, String> cacheConfig = new CacheConfig<Long, String>();
+      cacheConfig.cache("cache1", cache1);
+
+      // fill half of the tier so that nothing gets evicted
+      final int nbElements = (int) (tierSizeInMb * 1024 * 1024 / 2 / valueSize);
+      System.out.println("loading " + nbElements + " x " + valueGenerator.getDescription() + " with " + valueSerializer.getClass().getSimpleName() + "...");
+      System.gc();
+      PeakHeap.reset();
+      long start = System.nanoTime();
+      Runner.setUp(
+          Scenario.scenario("Loading phase")
+              .exec(
+                  Ehcache3Operations.put(Long.class, String.class).using(keyGenerator, valueGenerator)
+                      .sequentially()
+              ))
+          .executed(times(nbElements))
+          .config(
+              ConcurrencyConfig.concurrencyConfig().threads(1),
+              report(EhcacheResult.class),
+              cacheConfig)
+          .start();
+      System.out.printf ("load time: %d ms, peak heap: %d MB\n", (System.nanoTime() - start) / 1000000, PeakHeap.get() / 1024 / 1024);
+
+      System.out.println("testing...");
+      System.gc();
+      PeakHeap.reset();
+      Runner.setUp(
+          Scenario.scenario("Testing phase")
+              .exec(
+                  Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
+                      .atRandom(Distribution.GAUSSIAN, 0, nbElements, nbElements / 10)
+              ))
+          .executed(during(30, TimeDivision.seconds))
+          .config(
+              ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+              report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath() + "/" + valueSize)),
+              cacheConfig)
+          .start();
+      System.out.printf ("peak heap: %d MB\n", PeakHeap.get() / 1024 / 1024);
+
+      cacheManager.close();
+    }
+
+    System.exit(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Serializer<String> valueSerializer(String name) {
+    if (name.equals("compactJava")) {
+      return (Serializer) new CompactJavaSerializer(ClassLoader.getSystemClassLoader());
+    } else if (name.equals("streaming")) {
+      return new StringAsCharSerializer();
+    } else if (name.isEmpty() || name.equals("direct")) {
+      return new DirectBufferSerializer<String>(new StringAsCharSerializer());
+    }
+    throw new IllegalArgumentException("Unknown value serializer " + name + ", expected compactJava, streaming or direct");
+  }
+
+}
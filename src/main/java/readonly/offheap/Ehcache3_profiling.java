@@ -56,8 +56,10 @@ public class Ehcache3_profiling {
 
   public static void main(String[] args) throws Exception {
     final LongAdder expiryCounter = new LongAdder();
-    final ProfilingCompactJavaSerializer keySerializer = new ProfilingCompactJavaSerializer(ClassLoader.getSystemClassLoader());
-    final ProfilingCompactJavaSerializer valueSerializer = new ProfilingCompactJavaSerializer(ClassLoader.getSystemClassLoader());
+    final int sampleRate = 1000;
+    final int stackDepth = 10;
+    final ProfilingCompactJavaSerializer keySerializer = new ProfilingCompactJavaSerializer(ClassLoader.getSystemClassLoader(), sampleRate, stackDepth);
+    final ProfilingCompactJavaSerializer valueSerializer = new ProfilingCompactJavaSerializer(ClassLoader.getSystemClassLoader(), sampleRate, stackDepth);
     CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
 
         .withCache("cache1", CacheConfigurationBuilder.newCacheConfigurationBuilder(Long.class, String.class)
@@ -133,7 +135,7 @@ public class Ehcache3_profiling {
                 Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
                     .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread/10)
             ))
-        .executed(during(10, TimeDivision.seconds))
+        .executed(during(120, TimeDivision.seconds))
         .config(
             ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
             report(EhcacheResult.class, new EhcacheResult[] {EhcacheResult.GET, EhcacheResult.MISS}).log(html(reportPath.getPath())),
@@ -146,14 +148,9 @@ public class Ehcache3_profiling {
     System.out.println(keySerializer.equalsTrue);
     System.out.println("*** key equals false ***");
     System.out.println(keySerializer.equalsFalse);
-    System.out.println("*** key reads ***");
-    System.out.println(keySerializer.reads);
-    System.out.println("*** key equals ***");
-    System.out.println(keySerializer.equals);
-    System.out.println("*** value reads ***");
-    System.out.println(valueSerializer.reads);
-    System.out.println("*** value equals ***");
-    System.out.println(valueSerializer.equals);
+    System.out.println("*** sampling 1 call in " + sampleRate + " ***");
+    keySerializer.printReport("key", System.out);
+    valueSerializer.printReport("value", System.out);
     System.out.println("*** *** *** ***");
 
 
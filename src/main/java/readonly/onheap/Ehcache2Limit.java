@@ -32,6 +32,7 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
+import utils.ScalingCurve;
 
 import java.io.File;
 
@@ -41,6 +42,8 @@ import static io.rainfall.execution.Executions.during;
 import static io.rainfall.execution.Executions.times;
 
 /**
+ * With -Dsweep=true, runs the access test at 1, 2, 4... up to 2x the core count threads and prints the scaling curve
+ *
  * @author Ludovic Orban
  */
 public class Ehcache2Limit {
@@ -69,9 +72,25 @@ public class Ehcache2Limit {
     int nbThreads = Integer.parseInt(System.getProperty("nbThreads", "1"));
     final File reportPath = new File(System.getProperty("reportDir"));
 
-    StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath);
-
-    System.out.println("---> Max TPS" + finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET));
+    if (Boolean.getBoolean("sweep")) {
+      // same loaded cache for every step, from 1 thread to twice the core count
+      int stepDuration = Integer.getInteger("stepDuration", 30);
+      ScalingCurve curve = new ScalingCurve();
+      for (int threads : ScalingCurve.threadCounts(2 * Runtime.getRuntime().availableProcessors())) {
+        StatisticsPeekHolder stepStats = accessTest(threads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig,
+            new File(reportPath, "threads-" + threads), stepDuration);
+        long tps = stepStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET);
+        System.out.println("---> " + threads + " threads TPS " + tps);
+        curve.add(threads, tps);
+      }
+      curve.print(System.out);
+      reportPath.mkdirs();
+      curve.writeCsv(new File(reportPath, "scaling.csv"));
+    } else {
+      StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath, 180);
+
+      System.out.println("---> Max TPS" + finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET));
+    }
 
     cacheManager.shutdown();
 
@@ -95,7 +114,8 @@ public class Ehcache2Limit {
   }
 
   private static StatisticsPeekHolder accessTest(int nbThreads, LongGenerator keyGenerator, StringGenerator valueGenerator,
-                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath) throws SyntaxException {
+                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath,
+                                                 int durationInSeconds) throws SyntaxException {
     System.out.println("testing...");
 
     return Runner.setUp(
@@ -104,9 +124,9 @@ public class Ehcache2Limit {
                 Ehcache2Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
                     .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread / 10)
             ))
-        .executed(during(180, TimeDivision.seconds))
+        .executed(during(durationInSeconds, TimeDivision.seconds))
         .config(
-            ConcurrencyConfig.concurrencyConfig().threads(Runtime.getRuntime().availableProcessors()),
+            ConcurrencyConfig.concurrencyConfig().threads(nbThreads),
             report(EhcacheResult.class, new EhcacheResult[] { EhcacheResult.GET, EhcacheResult.MISS }).log(html(reportPath
                 .getPath())),
             cacheConfig)
@@ -32,8 +32,11 @@ import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
+import utils.LatencyRecorder;
+import utils.TrafficShape;
 
 import java.io.File;
+import java.io.IOException;
 
 import static io.rainfall.configuration.ReportingConfig.html;
 import static io.rainfall.configuration.ReportingConfig.report;
@@ -44,6 +47,10 @@ import static io.rainfall.execution.Executions.times;
  * analyze churn with $JAVA_HOME/bin/jmc
  * <p/>
  * Goal : Run a spike-based access to the cache, throttling TP to 90% of limit
+ * <p/>
+ * The get latencies, corrected for the time spent behind the throttle, are logged to get-*.hlog in the report dir
+ * <p/>
+ * -DtrafficShape replaces the default triangle:4000000 shape, see {@link TrafficShape}
  *
  * @author Ludovic Orban
  */
@@ -75,7 +82,10 @@ public class Ehcache3 {
     int nbThreads = Integer.parseInt(System.getProperty("nbThreads", "1"));
     final File reportPath = new File(System.getProperty("reportDir"));
 
-    StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath);
+    LatencyRecorder latencyRecorder = new LatencyRecorder(reportPath, "get");
+    latencyRecorder.start();
+    StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath, latencyRecorder);
+    latencyRecorder.stop();
 
     System.out.println("---> Max TPS" + finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET));
 
@@ -101,22 +111,28 @@ public class Ehcache3 {
   }
 
   private static StatisticsPeekHolder accessTest(int nbThreads, LongGenerator keyGenerator, StringGenerator valueGenerator,
-                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath) throws SyntaxException {
+                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath,
+                                                 LatencyRecorder latencyRecorder) throws SyntaxException, IOException {
     System.out.println("testing...");
 
-    return Runner.setUp(
-        Scenario.scenario("Testing phase")
-            .exec(
-                new TpsSpikeGetOperation<Long, String >(4_000_000)
-                .using(keyGenerator, valueGenerator)
-                    .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread / 10)
-            ))
-        .executed(during(180, TimeDivision.seconds))
-        .config(
-            ConcurrencyConfig.concurrencyConfig().threads(nbThreads),
-            report(EhcacheResult.class, new EhcacheResult[] { EhcacheResult.GET, EhcacheResult.MISS })
-                .log(html(reportPath.getPath())), cacheConfig)
-        .start();
+    TpsSpikeGetOperation<Long, String> getOperation = new TpsSpikeGetOperation<Long, String>(
+        TrafficShape.parse(System.getProperty("trafficShape", "triangle:4000000")), latencyRecorder);
+    try {
+      return Runner.setUp(
+          Scenario.scenario("Testing phase")
+              .exec(
+                  getOperation.using(keyGenerator, valueGenerator)
+                      .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread / 10)
+              ))
+          .executed(during(180, TimeDivision.seconds))
+          .config(
+              ConcurrencyConfig.concurrencyConfig().threads(nbThreads),
+              report(EhcacheResult.class, new EhcacheResult[] { EhcacheResult.GET, EhcacheResult.MISS })
+                  .log(html(reportPath.getPath())), cacheConfig)
+          .start();
+    } finally {
+      getOperation.close();
+    }
 
   }
 
@@ -31,6 +31,7 @@ import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
+import utils.ScalingCurve;
 
 import java.io.File;
 
@@ -43,6 +44,8 @@ import static io.rainfall.execution.Executions.times;
  * analyze churn with $JAVA_HOME/bin/jmc
  * <p/>
  * Goal : Run a spike-based access to the cache, throttling TP to 90% of limit
+ * <p/>
+ * With -Dsweep=true, runs the access test at 1, 2, 4... up to 2x the core count threads and prints the scaling curve
  *
  * @author Ludovic Orban
  */
@@ -74,9 +77,25 @@ public class Ehcache3Limit {
     int nbThreads = Integer.parseInt(System.getProperty("nbThreads", "1"));
     final File reportPath = new File(System.getProperty("reportDir"));
 
-    StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath);
-
-    System.out.println("---> Max TPS" + finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET));
+    if (Boolean.getBoolean("sweep")) {
+      // same loaded cache for every step, from 1 thread to twice the core count
+      int stepDuration = Integer.getInteger("stepDuration", 30);
+      ScalingCurve curve = new ScalingCurve();
+      for (int threads : ScalingCurve.threadCounts(2 * Runtime.getRuntime().availableProcessors())) {
+        StatisticsPeekHolder stepStats = accessTest(threads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig,
+            new File(reportPath, "threads-" + threads), stepDuration);
+        long tps = stepStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET);
+        System.out.println("---> " + threads + " threads TPS " + tps);
+        curve.add(threads, tps);
+      }
+      curve.print(System.out);
+      reportPath.mkdirs();
+      curve.writeCsv(new File(reportPath, "scaling.csv"));
+    } else {
+      StatisticsPeekHolder finalStats = accessTest(nbThreads, keyGenerator, valueGenerator, nbElementsPerThread, cacheConfig, reportPath, 180);
+
+      System.out.println("---> Max TPS" + finalStats.getTotalStatisticsPeeks().getCumulativeTps(EhcacheResult.GET));
+    }
 
     cacheManager.close();
 
@@ -100,7 +119,8 @@ public class Ehcache3Limit {
   }
 
   private static StatisticsPeekHolder accessTest(int nbThreads, LongGenerator keyGenerator, StringGenerator valueGenerator,
-                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath) throws SyntaxException {
+                                                 int nbElementsPerThread, CacheConfig<Long, String> cacheConfig, File reportPath,
+                                                 int durationInSeconds) throws SyntaxException {
     System.out.println("testing...");
 
     return Runner.setUp(
@@ -109,7 +129,7 @@ public class Ehcache3Limit {
                 Ehcache3Operations.get(Long.class, String.class).using(keyGenerator, valueGenerator)
                     .atRandom(Distribution.GAUSSIAN, 0, nbElementsPerThread, nbElementsPerThread / 10)
             ))
-        .executed(during(180, TimeDivision.seconds))
+        .executed(during(durationInSeconds, TimeDivision.seconds))
         .config(
             ConcurrencyConfig.concurrencyConfig().threads(nbThreads),
             report(EhcacheResult.class, new EhcacheResult[] { EhcacheResult.GET, EhcacheResult.MISS })
@@ -0,0 +1,163 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the keys 0 to nbKeys - 1 from several threads, each thread putting its own contiguous partition of the key
+ * range one key at a time, or by batches of batchSize keys when batchSize is more than 1.
+ * <p/>
+ * The load throughput is printed once done. When given the directory of a disk tier, the growth of its files and,
+ * on Linux, the bytes the process wrote to storage during the load are printed as well, so that the loading phase
+ * doubles as a cold start population benchmark.
+ *
+ * @author Ludovic Orban
+ */
+public abstract class BulkLoader {
+
+  private static final File PROC_SELF_IO = new File("/proc/self/io");
+
+  private final long nbKeys;
+  private final int threads;
+  private final int batchSize;
+  private final File diskPath;
+
+  protected BulkLoader(long nbKeys, int threads, int batchSize, File diskPath) {
+    if (threads < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("The load needs at least 1 thread and a batch size of at least 1");
+    }
+    this.nbKeys = nbKeys;
+    this.threads = threads;
+    this.batchSize = batchSize;
+    this.diskPath = diskPath;
+  }
+
+  protected abstract void put(long key);
+
+  /**
+   * Puts the keys from fromKey included to toKey excluded at once.
+   */
+  protected abstract void putAll(long fromKey, long toKey);
+
+  /**
+   * @return the load throughput, in entries per second
+   */
+  public double load(String name) throws InterruptedException, ExecutionException {
+    System.out.println("loading " + nbKeys + " entries in " + name + " with " + threads + " threads"
+        + (batchSize > 1 ? " by batches of " + batchSize : "") + "...");
+    long diskBytesBefore = diskPath == null ? 0L : sizeOf(diskPath);
+    long writtenBytesBefore = diskPath == null ? -1L : storageWriteBytes();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      List<Future<Void>> partitions = new ArrayList<Future<Void>>();
+      for (int i = 0; i < threads; i++) {
+        final long from = nbKeys * i / threads;
+        final long to = nbKeys * (i + 1) / threads;
+        partitions.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            loadPartition(from, to);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> partition : partitions) {
+        partition.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+    double entriesPerSecond = nbKeys / seconds;
+    System.out.printf("---> %s load: %d entries in %.1f s, %.0f entries/s\n", name, nbKeys, seconds, entriesPerSecond);
+    if (diskPath != null) {
+      long diskBytes = sizeOf(diskPath) - diskBytesBefore;
+      System.out.printf("---> %s disk files: %.1f MB grown, %.1f MB/s\n", name, diskBytes / 1048576.0, diskBytes / 1048576.0 / seconds);
+      long writtenBytesAfter = storageWriteBytes();
+      if (writtenBytesBefore >= 0 && writtenBytesAfter >= 0) {
+        long writtenBytes = writtenBytesAfter - writtenBytesBefore;
+        System.out.printf("---> %s storage writes: %.1f MB written, %.1f MB/s\n", name, writtenBytes / 1048576.0, writtenBytes / 1048576.0 / seconds);
+      }
+    }
+    return entriesPerSecond;
+  }
+
+  private void loadPartition(long from, long to) {
+    if (batchSize == 1) {
+      for (long key = from; key < to; key++) {
+        put(key);
+      }
+    } else {
+      for (long key = from; key < to; key += batchSize) {
+        putAll(key, Math.min(to, key + batchSize));
+      }
+    }
+  }
+
+  private static long sizeOf(File file) {
+    if (file.isFile()) {
+      return file.length();
+    }
+    long size = 0L;
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        size += sizeOf(child);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the write_bytes of /proc/self/io, i.e. what the process caused to be written to storage, or -1 when
+   * not on Linux
+   */
+  private static long storageWriteBytes() {
+    if (!PROC_SELF_IO.canRead()) {
+      return -1L;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new FileReader(PROC_SELF_IO));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("write_bytes:")) {
+            return Long.parseLong(line.substring("write_bytes:".length()).trim());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // fall through
+    }
+    return -1L;
+  }
+}
@@ -15,28 +15,52 @@
  */
 package utils;
 
+import net.sf.ehcache.util.concurrent.LongAdder;
 import org.ehcache.exceptions.SerializerException;
 import org.ehcache.impl.serialization.CompactJavaSerializer;
 import sun.nio.ch.DirectBuffer;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
+ * Caches decoded objects per thread in a small direct-mapped table. A slot only hits when the off-heap address,
+ * the length and a hash of the whole content all match, so memory freed and reused at the same address never
+ * returns a stale object.
+ *
  * @author Ludovic Orban
  */
 public class CachingCompactJavaSerializer extends CompactJavaSerializer {
 
-  private final ThreadLocal<Map<Long, Object>> cache = new ThreadLocal<Map<Long, Object>>() {
+  private static final int DEFAULT_CACHE_SIZE = 256;
+
+  public final LongAdder hits = new LongAdder();
+  public final LongAdder misses = new LongAdder();
+
+  private final int cacheSize;
+  private final ThreadLocal<DecodeCache> cache = new ThreadLocal<DecodeCache>() {
     @Override
-    protected Map<Long, Object> initialValue() {
-      return new HashMap<Long, Object>();
+    protected DecodeCache initialValue() {
+      return new DecodeCache(cacheSize);
     }
   };
 
   public CachingCompactJavaSerializer(ClassLoader loader) {
+    this(loader, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param cacheSize number of slots of each per-thread table, rounded up to a power of two
+   */
+  public CachingCompactJavaSerializer(ClassLoader loader, int cacheSize) {
     super(loader);
+    if (cacheSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive : " + cacheSize);
+    }
+    int size = 1;
+    while (size < cacheSize) {
+      size <<= 1;
+    }
+    this.cacheSize = size;
   }
 
   @Override
@@ -46,20 +70,31 @@ public class CachingCompactJavaSerializer extends CompactJavaSerializer {
 
   @Override
   public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
-    DirectBuffer directBuffer = null;
-    if (binary.isDirect()) {
-      directBuffer = (DirectBuffer) binary;
-      Object o = cache.get().get(directBuffer.address());
-      if (o != null) {
-        return o;
-      }
+    if (!binary.isDirect()) {
+      return super.read(binary);
     }
 
-    Object read = super.read(binary);
-    if (directBuffer != null) {
-      cache.get().clear();
-      cache.get().put(directBuffer.address(), read);
+    int position = binary.position();
+    int length = binary.remaining();
+    long address = ((DirectBuffer) binary).address() + position;
+    long hash = ContentHash.hash(binary, position, length);
+
+    DecodeCache decodeCache = cache.get();
+    int slot = decodeCache.slot(address);
+    if (decodeCache.addresses[slot] == address && decodeCache.lengths[slot] == length && decodeCache.hashes[slot] == hash
+        && decodeCache.values[slot] != null) {
+      hits.increment();
+      // consumed as a decode would, so the buffer is left the same on hits and misses
+      binary.position(position + length);
+      return decodeCache.values[slot];
     }
+
+    misses.increment();
+    Object read = super.read(binary);
+    decodeCache.addresses[slot] = address;
+    decodeCache.lengths[slot] = length;
+    decodeCache.hashes[slot] = hash;
+    decodeCache.values[slot] = read;
     return read;
   }
 
@@ -67,4 +102,34 @@ public class CachingCompactJavaSerializer extends CompactJavaSerializer {
   public boolean equals(Object object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
     return object.equals(read(binary));
   }
+
+  /**
+   * @return the ratio of reads served from the decode cache, from 0 to 1
+   */
+  public double hitRatio() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0.0 : (double) hitCount / total;
+  }
+
+  private static class DecodeCache {
+    private final long[] addresses;
+    private final int[] lengths;
+    private final long[] hashes;
+    private final Object[] values;
+    private final int mask;
+
+    DecodeCache(int size) {
+      addresses = new long[size];
+      lengths = new int[size];
+      hashes = new long[size];
+      values = new Object[size];
+      mask = size - 1;
+    }
+
+    int slot(long address) {
+      long h = address * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & mask;
+    }
+  }
 }
@@ -23,39 +23,74 @@ import org.ehcache.spi.serialization.Serializer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.Externalizable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * When {@code compareSerializedForm} is enabled, {@link #equals(Object, ByteBuffer)} compares the serialized form
+ * of the probe with the stored binary instead of deserializing it. This assumes {@code equals} of the compared
+ * types is consistent with their serialized state; types whose serialized form is not canonical always fall back
+ * to full deserialization.
+ *
  * @author Ludovic Orban
  */
 public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Closeable {
 
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+  private static final Set<Class<?>> CANONICAL_LEAF_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      String.class, Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class));
+
   private final AtomicInteger nextStreamIndex = new AtomicInteger(0);
 
   private final ConcurrentMap<Integer, ObjectStreamClass> readLookup = new java.util.concurrent.ConcurrentHashMap<Integer, ObjectStreamClass>();
   private final ConcurrentMap<SerializableDataKey, Integer> writeLookup = new java.util.concurrent.ConcurrentHashMap<SerializableDataKey, Integer>();
 
+  private final ConcurrentMap<Class<?>, Boolean> canonicalTypes = new java.util.concurrent.ConcurrentHashMap<Class<?>, Boolean>();
+  private volatile ObjectStreamClass[] readTable = new ObjectStreamClass[0];
+
+  private final ThreadLocal<PooledInput> pooledInput = new ThreadLocal<PooledInput>();
+  private final ThreadLocal<PooledOutput> pooledOutput = new ThreadLocal<PooledOutput>();
+  private final ThreadLocal<SerializedProbe> serializedProbe = new ThreadLocal<SerializedProbe>() {
+    @Override
+    protected SerializedProbe initialValue() {
+      return new SerializedProbe();
+    }
+  };
+
   private final transient ClassLoader loader;
+  private final boolean compareSerializedForm;
 
   public ClassCachingCompactJavaSerializer() {
     this(ClassLoader.getSystemClassLoader());
   }
 
   public ClassCachingCompactJavaSerializer(ClassLoader loader) {
+    this(loader, false);
+  }
+
+  public ClassCachingCompactJavaSerializer(ClassLoader loader, boolean compareSerializedForm) {
     this.loader = loader;
+    this.compareSerializedForm = compareSerializedForm;
   }
 
   protected ClassCachingCompactJavaSerializer(ClassLoader loader, Map<Integer, ObjectStreamClass> mappings) {
@@ -64,9 +99,13 @@ public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Clos
       Integer encoding = e.getKey();
       ObjectStreamClass disconnectedOsc = disconnect(e.getValue());
       readLookup.put(encoding, disconnectedOsc);
+      addToReadTable(encoding, disconnectedOsc);
       if (writeLookup.putIfAbsent(new SerializableDataKey(disconnectedOsc, true), encoding) != null) {
         throw new AssertionError("Corrupted data " + mappings.toString());
       }
+      if (encoding >= nextStreamIndex.get()) {
+        nextStreamIndex.set(encoding + 1);
+      }
     }
   }
 
@@ -76,6 +115,40 @@ public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Clos
 
   @Override
   public ByteBuffer serialize(T object) throws SerializerException {
+    PooledOutput output = pooledOutput.get();
+    if (output == null) {
+      output = new PooledOutput(this);
+      pooledOutput.set(output);
+    } else if (output.inUse) {
+      // nested call from within writeObject
+      return serializeUnpooled(object);
+    }
+
+    output.inUse = true;
+    boolean reusable = false;
+    try {
+      ObjectOutputStream oout = output.oout;
+      oout.writeObject(object);
+      oout.flush();
+      ByteBuffer binary = ByteBuffer.wrap(output.buffer.toByteArray());
+      reusable = output.buffer.capacity() <= MAX_POOLED_BUFFER_SIZE;
+      return binary;
+    } catch (IOException e) {
+      throw new SerializerException(e);
+    } finally {
+      output.inUse = false;
+      if (reusable) {
+        // cleared right away rather than at the next call, so the handle table does not pin the serialized graph
+        reusable = output.clear();
+      }
+      if (!reusable) {
+        // the stream state is unknown after a failed write, and oversized buffers must not stay pinned
+        pooledOutput.remove();
+      }
+    }
+  }
+
+  private ByteBuffer serializeUnpooled(T object) throws SerializerException {
     try {
       ByteArrayOutputStream bout = new ByteArrayOutputStream();
       ObjectOutputStream oout = getObjectOutputStream(bout);
@@ -92,6 +165,39 @@ public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Clos
 
   @Override
   public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    PooledInput input = pooledInput.get();
+    if (input != null && input.inUse) {
+      // nested call from within readObject
+      return readUnpooled(binary);
+    }
+
+    boolean reusable = false;
+    try {
+      if (input == null) {
+        input = new PooledInput(this, binary);
+        pooledInput.set(input);
+      } else {
+        input.repoint(binary);
+      }
+      input.inUse = true;
+      T object = (T) input.oin.readObject();
+      reusable = true;
+      return object;
+    } catch (IOException e) {
+      throw new SerializerException(e);
+    } finally {
+      if (input != null) {
+        input.inUse = false;
+        input.in.release();
+      }
+      if (!reusable) {
+        // the stream state is unknown after a failed read
+        pooledInput.remove();
+      }
+    }
+  }
+
+  private T readUnpooled(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
     try {
       ObjectInputStream oin = getObjectInputStream(new ByteBufferInputStream(binary));
       try {
@@ -105,84 +211,203 @@ public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Clos
   }
 
   public ObjectOutputStream getObjectOutputStream(OutputStream out) throws IOException {
-    return new OOS(out);
+    return new OOS(out, this);
   }
 
   public ObjectInputStream getObjectInputStream(InputStream input) throws IOException {
-    return new OIS(input, loader);
+    return new OIS(input, this, loader);
   }
 
   @Override
   public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    if (compareSerializedForm && hasCanonicalSerializedForm(object.getClass())) {
+      // ByteBuffer.equals compares the remaining bytes without moving either position
+      return serializedForm(object).equals(binary);
+    }
     return object.equals(read(binary));
   }
 
+  private ByteBuffer serializedForm(T object) {
+    SerializedProbe probe = serializedProbe.get();
+    // a lookup calls equals once per candidate of the hash chain with the same probe instance
+    if (probe.object != object) {
+      probe.binary = serialize(object);
+      probe.object = object;
+    }
+    return probe.binary;
+  }
+
+  private boolean hasCanonicalSerializedForm(Class<?> klazz) {
+    Boolean canonical = canonicalTypes.get(klazz);
+    if (canonical == null) {
+      canonical = isCanonical(klazz, new HashSet<Class<?>>());
+      canonicalTypes.put(klazz, canonical);
+    }
+    return canonical;
+  }
+
+  /**
+   * A type is canonical when equal instances always serialize to the same bytes: value equality, default
+   * serialization only, and at most one reference field (so no back-reference handles) whose type is itself
+   * final and canonical. A type reached again through its own fields is not, its instances could hold cycles.
+   */
+  private static boolean isCanonical(Class<?> klazz, Set<Class<?>> visiting) {
+    if (CANONICAL_LEAF_TYPES.contains(klazz)) {
+      return true;
+    }
+    if (!visiting.add(klazz)) {
+      return false;
+    }
+    if (!Serializable.class.isAssignableFrom(klazz) || Externalizable.class.isAssignableFrom(klazz) || !overridesEquals(klazz)) {
+      return false;
+    }
+
+    int referenceFields = 0;
+    for (Class<?> c = klazz; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+      if (declaresMethod(c, "writeObject", ObjectOutputStream.class) || declaresMethod(c, "writeReplace")) {
+        return false;
+      }
+      ObjectStreamClass osc = ObjectStreamClass.lookup(c);
+      for (ObjectStreamField field : osc.getFields()) {
+        if (field.isPrimitive()) {
+          continue;
+        }
+        Class<?> type = field.getType();
+        if (++referenceFields > 1 || !Modifier.isFinal(type.getModifiers()) || !isCanonical(type, visiting)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean overridesEquals(Class<?> klazz) {
+    try {
+      return klazz.getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static boolean declaresMethod(Class<?> klazz, String name, Class<?>... parameterTypes) {
+    try {
+      klazz.getDeclaredMethod(name, parameterTypes);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
   protected int getOrAddMapping(ObjectStreamClass desc) throws IOException {
     SerializableDataKey probe = new SerializableDataKey(desc, false);
     Integer rep = writeLookup.get(probe);
-    if (rep == null) {
-      ObjectStreamClass disconnected = disconnect(desc);
-      SerializableDataKey key = new SerializableDataKey(disconnected, true);
-      rep = nextStreamIndex.getAndIncrement();
-
-      ObjectStreamClass existingOsc = readLookup.putIfAbsent(rep, disconnected);
-      if (existingOsc == null) {
-        Integer existingRep = writeLookup.putIfAbsent(key, rep);
-        if (existingRep == null) {
-          return rep;
-        } else {
-          /*
-           * A racing thread established a mapping already.  We must clean up
-           * our half complete mapping.
-           */
-          readLookup.remove(rep);
-          return existingRep;
-        }
-      } else {
-        //impossible as governed by AtomicInteger - excluding wrap-around == 2^32 types)
-        throw new AssertionError();
+    if (rep != null) {
+      return rep;
+    }
+    synchronized (this) {
+      rep = writeLookup.get(probe);
+      if (rep != null) {
+        // a racing thread established the mapping while this one was waiting
+        return rep;
       }
+      ObjectStreamClass disconnected = disconnect(desc);
+      int newRep = nextStreamIndex.get();
+      // nothing can encode with the new id until writeLookup holds it, so if the hook fails no data uses it
+      mappingAdded(newRep, disconnected);
+      nextStreamIndex.set(newRep + 1);
+      readLookup.put(newRep, disconnected);
+      addToReadTable(newRep, disconnected);
+      writeLookup.put(new SerializableDataKey(disconnected, true), newRep);
+      return newRep;
+    }
+  }
+
+  /**
+   * Called with the serializer locked when a new mapping is needed, before any thread can see or use it. When this
+   * throws, the mapping is not established and the exception goes to the serializing caller.
+   */
+  protected void mappingAdded(int rep, ObjectStreamClass disconnected) throws IOException {
+  }
+
+  private synchronized void addToReadTable(int rep, ObjectStreamClass osc) {
+    ObjectStreamClass[] table = readTable;
+    if (rep >= table.length) {
+      table = Arrays.copyOf(table, Math.max(rep + 1, table.length * 2));
     } else {
-      return rep;
+      table = table.clone();
     }
+    table[rep] = osc;
+    readTable = table;
+  }
+
+  private ObjectStreamClass lookupReadMapping(int rep) {
+    ObjectStreamClass[] table = readTable;
+    if (rep >= 0 && rep < table.length) {
+      ObjectStreamClass osc = table[rep];
+      if (osc != null) {
+        return osc;
+      }
+    }
+    return readLookup.get(rep);
   }
 
   @Override
   public void close() {
     readLookup.clear();
     writeLookup.clear();
+    synchronized (this) {
+      readTable = new ObjectStreamClass[0];
+    }
   }
 
-  class OOS extends ObjectOutputStream {
+  /**
+   * Streams pooled in thread locals only weakly reference their serializer, so that they do not keep it, and its
+   * thread locals, reachable from every thread that used it once the serializer is dropped.
+   */
+  private static ClassCachingCompactJavaSerializer<?> serializer(WeakReference<ClassCachingCompactJavaSerializer<?>> reference) throws IOException {
+    ClassCachingCompactJavaSerializer<?> serializer = reference.get();
+    if (serializer == null) {
+      throw new IOException("The serializer of this stream was garbage collected");
+    }
+    return serializer;
+  }
 
-    public OOS(OutputStream out) throws IOException {
+  static class OOS extends ObjectOutputStream {
+
+    private final WeakReference<ClassCachingCompactJavaSerializer<?>> serializer;
+
+    public OOS(OutputStream out, ClassCachingCompactJavaSerializer<?> serializer) throws IOException {
       super(out);
+      this.serializer = new WeakReference<ClassCachingCompactJavaSerializer<?>>(serializer);
     }
 
     @Override
     protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
-      writeInt(getOrAddMapping(desc));
+      writeInt(serializer(serializer).getOrAddMapping(desc));
     }
   }
 
   private final Map<String, Class> cache = new ConcurrentHashMap<String, Class>();
 
-  class OIS extends ObjectInputStream {
+  static class OIS extends ObjectInputStream {
 
+    private final WeakReference<ClassCachingCompactJavaSerializer<?>> serializer;
     private final ClassLoader loader;
 
-    public OIS(InputStream in, ClassLoader loader) throws IOException {
+    public OIS(InputStream in, ClassCachingCompactJavaSerializer<?> serializer, ClassLoader loader) throws IOException {
       super(in);
+      this.serializer = new WeakReference<ClassCachingCompactJavaSerializer<?>>(serializer);
       this.loader = loader;
     }
 
     @Override
     protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
-      return readLookup.get(readInt());
+      return serializer(serializer).lookupReadMapping(readInt());
     }
 
     @Override
     protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      Map<String, Class> cache = serializer(serializer).cache;
       Class aClass = cache.get(desc.getName());
       if (aClass != null) {
         return aClass;
@@ -207,6 +432,134 @@ public class ClassCachingCompactJavaSerializer<T> implements Serializer<T>, Clos
     }
   }
 
+  private static class PooledOutput {
+    private final ReusableByteArrayOutputStream buffer = new ReusableByteArrayOutputStream();
+    private final ObjectOutputStream oout;
+    private final int headerLength;
+    private boolean inUse;
+
+    PooledOutput(ClassCachingCompactJavaSerializer<?> serializer) {
+      try {
+        oout = serializer.getObjectOutputStream(buffer);
+        oout.flush();
+      } catch (IOException e) {
+        throw new SerializerException(e);
+      }
+      headerLength = buffer.size();
+    }
+
+    /**
+     * @return false when the stream could not be reset and must not be reused
+     */
+    boolean clear() {
+      try {
+        // reset() clears the handle table but emits a TC_RESET marker, which is dropped along with the previous object
+        oout.reset();
+        oout.flush();
+      } catch (IOException e) {
+        return false;
+      }
+      buffer.truncate(headerLength);
+      return true;
+    }
+  }
+
+  private static class PooledInput {
+    private final RepointableInputStream in = new RepointableInputStream();
+    private final ObjectInputStream oin;
+    private boolean inUse;
+
+    PooledInput(ClassCachingCompactJavaSerializer<?> serializer, ByteBuffer binary) throws IOException {
+      in.point(binary, false);
+      oin = serializer.getObjectInputStream(in);
+    }
+
+    void repoint(ByteBuffer binary) {
+      in.point(binary, true);
+    }
+  }
+
+  /**
+   * Serves the bytes of a {@link ByteBuffer} with absolute gets, leaving its position untouched. When re-pointed,
+   * the stream header is skipped and replaced by a TC_RESET marker so the already initialized
+   * {@link ObjectInputStream} clears its handle table before reading the next object.
+   */
+  private static class RepointableInputStream extends InputStream {
+    private static final int STREAM_HEADER_LENGTH = 4;
+
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    private boolean pendingReset;
+
+    void point(ByteBuffer binary, boolean skipHeader) {
+      buffer = binary;
+      position = binary.position() + (skipHeader ? STREAM_HEADER_LENGTH : 0);
+      limit = binary.limit();
+      pendingReset = skipHeader;
+    }
+
+    void release() {
+      buffer = null;
+    }
+
+    @Override
+    public int read() {
+      if (pendingReset) {
+        pendingReset = false;
+        return ObjectStreamConstants.TC_RESET & 0xff;
+      }
+      if (position >= limit) {
+        return -1;
+      }
+      return buffer.get(position++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (pendingReset) {
+        pendingReset = false;
+        b[off] = ObjectStreamConstants.TC_RESET;
+        return 1;
+      }
+      int count = Math.min(len, limit - position);
+      if (count <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < count; i++) {
+        b[off + i] = buffer.get(position++);
+      }
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return (pendingReset ? 1 : 0) + Math.max(0, limit - position);
+    }
+  }
+
+  private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    ReusableByteArrayOutputStream() {
+      super(256);
+    }
+
+    void truncate(int size) {
+      count = size;
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+
+  private static class SerializedProbe {
+    private Object object;
+    private ByteBuffer binary;
+  }
+
   protected static class SerializableDataKey {
     private final ObjectStreamClass osc;
     private final int hashCode;
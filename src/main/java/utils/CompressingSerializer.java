@@ -0,0 +1,295 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import net.sf.ehcache.util.concurrent.LongAdder;
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses the output of another serializer with an LZ4 block encoder. Binaries smaller than the threshold, or
+ * that do not shrink, are stored raw behind a one byte header.
+ *
+ * @author Ludovic Orban
+ */
+public class CompressingSerializer<T> implements Serializer<T> {
+
+  private static final int DEFAULT_MIN_SIZE = 64;
+
+  private static final byte RAW = 0;
+  private static final byte LZ4 = 1;
+
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_LOG = 12;
+
+  public final LongAdder rawBytes = new LongAdder();
+  public final LongAdder storedBytes = new LongAdder();
+  public final LongAdder serializations = new LongAdder();
+  public final LongAdder reads = new LongAdder();
+  public final LongAdder readNanos = new LongAdder();
+
+  private final Serializer<T> serializer;
+  private final int minSize;
+
+  private final ThreadLocal<int[]> hashTable = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1 << HASH_LOG];
+    }
+  };
+
+  public CompressingSerializer(Serializer<T> serializer) {
+    this(serializer, DEFAULT_MIN_SIZE);
+  }
+
+  public CompressingSerializer(Serializer<T> serializer, int minSize) {
+    this.serializer = serializer;
+    this.minSize = minSize;
+  }
+
+  @Override
+  public ByteBuffer serialize(T object) throws SerializerException {
+    ByteBuffer serialized = serializer.serialize(object);
+    int length = serialized.remaining();
+    byte[] input;
+    int offset;
+    if (serialized.hasArray()) {
+      input = serialized.array();
+      offset = serialized.arrayOffset() + serialized.position();
+    } else {
+      input = new byte[length];
+      serialized.duplicate().get(input);
+      offset = 0;
+    }
+
+    ByteBuffer result = null;
+    if (length >= minSize) {
+      byte[] compressed = new byte[5 + maxCompressedLength(length)];
+      compressed[0] = LZ4;
+      compressed[1] = (byte) (length >>> 24);
+      compressed[2] = (byte) (length >>> 16);
+      compressed[3] = (byte) (length >>> 8);
+      compressed[4] = (byte) length;
+      int compressedLength = compress(input, offset, length, compressed, 5);
+      if (5 + compressedLength < 1 + length) {
+        result = ByteBuffer.wrap(Arrays.copyOf(compressed, 5 + compressedLength));
+      }
+    }
+    if (result == null) {
+      result = ByteBuffer.allocate(1 + length);
+      result.put(RAW).put(input, offset, length).flip();
+    }
+
+    serializations.increment();
+    rawBytes.add(length);
+    storedBytes.add(result.remaining());
+    return result;
+  }
+
+  @Override
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    long start = System.nanoTime();
+    T read = serializer.read(payload(binary));
+    readNanos.add(System.nanoTime() - start);
+    reads.increment();
+    return read;
+  }
+
+  @Override
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.equals(object, payload(binary));
+  }
+
+  /**
+   * @return stored bytes over the bytes produced by the wrapped serializer
+   */
+  public double compressionRatio() {
+    long raw = rawBytes.sum();
+    return raw == 0 ? 1.0 : (double) storedBytes.sum() / raw;
+  }
+
+  public double averageRawSize() {
+    long count = serializations.sum();
+    return count == 0 ? 0.0 : (double) rawBytes.sum() / count;
+  }
+
+  public double averageStoredSize() {
+    long count = serializations.sum();
+    return count == 0 ? 0.0 : (double) storedBytes.sum() / count;
+  }
+
+  /**
+   * @return the average time spent decompressing and deserializing a value, in nanoseconds
+   */
+  public double nanosPerRead() {
+    long count = reads.sum();
+    return count == 0 ? 0.0 : (double) readNanos.sum() / count;
+  }
+
+  private ByteBuffer payload(ByteBuffer binary) throws SerializerException {
+    int position = binary.position();
+    byte encoding = binary.get(position);
+    if (encoding == RAW) {
+      ByteBuffer payload = binary.duplicate();
+      payload.position(position + 1);
+      return payload;
+    } else if (encoding == LZ4) {
+      int length = binary.getInt(position + 1);
+      byte[] decompressed = new byte[length];
+      decompress(binary, position + 5, binary.limit(), decompressed);
+      return ByteBuffer.wrap(decompressed);
+    } else {
+      throw new SerializerException("Unknown encoding " + encoding);
+    }
+  }
+
+  private static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private int compress(byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+    int[] table = hashTable.get();
+    Arrays.fill(table, -1);
+
+    int end = inOffset + length;
+    int matchLimit = end - LAST_LITERALS;
+    int anchor = inOffset;
+    int ip = inOffset;
+    int op = outOffset;
+
+    if (length >= MF_LIMIT + 1) {
+      while (ip < end - MF_LIMIT) {
+        int sequence = readInt(in, ip);
+        int h = hash(sequence);
+        int ref = table[h];
+        table[h] = ip;
+        if (ref < 0 || ip - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+          ip++;
+          continue;
+        }
+
+        while (ip > anchor && ref > inOffset && in[ip - 1] == in[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && in[ref + matchLength] == in[ip + matchLength]) {
+          matchLength++;
+        }
+
+        op = writeSequence(in, anchor, ip - anchor, ip - ref, matchLength, out, op);
+        ip += matchLength;
+        anchor = ip;
+      }
+    }
+
+    return writeLastLiterals(in, anchor, end - anchor, out, op) - outOffset;
+  }
+
+  private static int writeSequence(byte[] in, int literalStart, int literalLength, int offset, int matchLength, byte[] out, int op) {
+    int tokenPos = op++;
+    int matchCode = matchLength - MIN_MATCH;
+    out[tokenPos] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+    op = writeLength(literalLength, out, op);
+    System.arraycopy(in, literalStart, out, op, literalLength);
+    op += literalLength;
+    out[op++] = (byte) offset;
+    out[op++] = (byte) (offset >>> 8);
+    return writeLength(matchCode, out, op);
+  }
+
+  private static int writeLastLiterals(byte[] in, int literalStart, int literalLength, byte[] out, int op) {
+    out[op++] = (byte) (Math.min(literalLength, 15) << 4);
+    op = writeLength(literalLength, out, op);
+    System.arraycopy(in, literalStart, out, op, literalLength);
+    return op + literalLength;
+  }
+
+  private static int writeLength(int length, byte[] out, int op) {
+    if (length >= 15) {
+      int remaining = length - 15;
+      while (remaining >= 255) {
+        out[op++] = (byte) 255;
+        remaining -= 255;
+      }
+      out[op++] = (byte) remaining;
+    }
+    return op;
+  }
+
+  private static void decompress(ByteBuffer in, int ip, int end, byte[] out) throws SerializerException {
+    int op = 0;
+    try {
+      while (true) {
+        int token = in.get(ip++) & 0xff;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = in.get(ip++) & 0xff;
+            literalLength += b;
+          } while (b == 255);
+        }
+        for (int i = 0; i < literalLength; i++) {
+          out[op++] = in.get(ip++);
+        }
+        if (ip >= end) {
+          break;
+        }
+
+        int offset = (in.get(ip) & 0xff) | ((in.get(ip + 1) & 0xff) << 8);
+        ip += 2;
+        int matchLength = token & 0x0f;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = in.get(ip++) & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+
+        int ref = op - offset;
+        if (offset == 0 || ref < 0) {
+          throw new SerializerException("Corrupted LZ4 block, offset " + offset + " at " + op);
+        }
+        // byte by byte as the match may overlap the bytes it produces
+        for (int i = 0; i < matchLength; i++) {
+          out[op++] = out[ref++];
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new SerializerException("Corrupted LZ4 block", e);
+    }
+    if (op != out.length) {
+      throw new SerializerException("Corrupted LZ4 block, decompressed " + op + " bytes instead of " + out.length);
+    }
+  }
+
+  private static int readInt(byte[] in, int offset) {
+    return (in[offset] & 0xff) | ((in[offset + 1] & 0xff) << 8) | ((in[offset + 2] & 0xff) << 16) | (in[offset + 3] << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+}
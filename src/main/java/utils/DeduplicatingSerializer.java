@@ -0,0 +1,230 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import net.sf.ehcache.util.concurrent.LongAdder;
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a single reference-counted off-heap copy of each distinct serialized value, found by content hash, and only
+ * hands out a 9 byte handle to the store. Values smaller than a handle, or whose hash collides with different content,
+ * are stored inline.
+ * <p/>
+ * A serializer is never told when the store drops a binary, so copies are only released through
+ * {@link #release(Object)}, typically from a cache event listener on evictions, expiries, removals and updates.
+ * Binaries that are serialized but never stored keep their copy alive, which wastes memory but is never unsafe.
+ * <p/>
+ * Listeners run after the store swapped the binary, while a concurrent get may still hold the old handle and decode
+ * it later, so a released copy stays in the pool, and is revived if the same value gets stored again, until
+ * {@link #reclaim()} frees the unreferenced copies at a point where no read is in flight.
+ *
+ * @author Ludovic Orban
+ */
+public class DeduplicatingSerializer<T> implements Serializer<T> {
+
+  private static final byte INLINE = 0;
+  private static final byte SHARED = 1;
+  private static final int HANDLE_SIZE = 9;
+
+  /**
+   * Bytes the store would hold without deduplication, for the values currently referenced through handles.
+   */
+  public final LongAdder logicalBytes = new LongAdder();
+  /**
+   * Bytes actually held by the shared copies.
+   */
+  public final LongAdder sharedBytes = new LongAdder();
+  public final LongAdder sharedValues = new LongAdder();
+
+  private final Serializer<T> serializer;
+  private final ConcurrentMap<Long, SharedValue> pool = new ConcurrentHashMap<Long, SharedValue>();
+
+  public DeduplicatingSerializer(Serializer<T> serializer) {
+    this.serializer = serializer;
+  }
+
+  @Override
+  public ByteBuffer serialize(T object) throws SerializerException {
+    ByteBuffer serialized = serializer.serialize(object);
+    int length = serialized.remaining();
+    if (length > HANDLE_SIZE) {
+      long hash = ContentHash.hash(serialized);
+      if (acquire(hash, serialized)) {
+        logicalBytes.add(length);
+        ByteBuffer handle = ByteBuffer.allocate(HANDLE_SIZE);
+        handle.put(SHARED).putLong(hash).flip();
+        return handle;
+      }
+    }
+
+    ByteBuffer inline = ByteBuffer.allocate(1 + length);
+    inline.put(INLINE).put(serialized).flip();
+    return inline;
+  }
+
+  @Override
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.read(payload(binary));
+  }
+
+  @Override
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.equals(object, payload(binary));
+  }
+
+  /**
+   * Drops one reference to the shared copy of the given value. The copy is only freed by {@link #reclaim()}.
+   */
+  public void release(T object) throws SerializerException {
+    ByteBuffer serialized = serializer.serialize(object);
+    if (serialized.remaining() <= HANDLE_SIZE) {
+      return;
+    }
+    long hash = ContentHash.hash(serialized);
+    SharedValue shared = pool.get(hash);
+    if (shared == null || !shared.content.equals(serialized)) {
+      // stored inline
+      return;
+    }
+
+    if (shared.release()) {
+      logicalBytes.add(-serialized.remaining());
+    }
+  }
+
+  /**
+   * Frees the shared copies no stored binary uses anymore. Only call this while no get, or deserialization of a
+   * value read earlier, can run concurrently, e.g. between two phases of a test.
+   *
+   * @return the number of freed copies
+   */
+  public int reclaim() {
+    int reclaimed = 0;
+    for (Map.Entry<Long, SharedValue> entry : pool.entrySet()) {
+      SharedValue shared = entry.getValue();
+      if (shared.retire()) {
+        pool.remove(entry.getKey(), shared);
+        sharedBytes.add(-shared.content.capacity());
+        sharedValues.decrement();
+        reclaimed++;
+      }
+    }
+    return reclaimed;
+  }
+
+  /**
+   * @return the bytes saved by sharing, not counting the handles themselves
+   */
+  public long savedBytes() {
+    return logicalBytes.sum() - sharedBytes.sum();
+  }
+
+  private boolean acquire(long hash, ByteBuffer serialized) {
+    while (true) {
+      SharedValue shared = pool.get(hash);
+      if (shared == null) {
+        ByteBuffer content = ByteBuffer.allocateDirect(serialized.remaining());
+        content.put(serialized.duplicate()).flip();
+        shared = new SharedValue(content);
+        if (pool.putIfAbsent(hash, shared) == null) {
+          sharedBytes.add(content.capacity());
+          sharedValues.increment();
+          return true;
+        }
+      } else if (!shared.content.equals(serialized)) {
+        // hash collision with different content
+        return false;
+      } else if (shared.acquire()) {
+        return true;
+      } else {
+        // lost a race with reclaim, the copy is on its way out of the pool
+        pool.remove(hash, shared);
+      }
+    }
+  }
+
+  private ByteBuffer payload(ByteBuffer binary) throws SerializerException {
+    int position = binary.position();
+    byte encoding = binary.get(position);
+    if (encoding == INLINE) {
+      ByteBuffer payload = binary.duplicate();
+      payload.position(position + 1);
+      return payload;
+    } else if (encoding == SHARED) {
+      long hash = binary.getLong(position + 1);
+      SharedValue shared = pool.get(hash);
+      if (shared == null) {
+        throw new SerializerException("Shared value " + Long.toHexString(hash) + " was released while still referenced");
+      }
+      return shared.content.duplicate();
+    } else {
+      throw new SerializerException("Unknown encoding " + encoding);
+    }
+  }
+
+  private static class SharedValue {
+    private final ByteBuffer content;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SharedValue(ByteBuffer content) {
+      this.content = content;
+    }
+
+    /**
+     * @return false when the copy was retired, a released copy that is still pooled is revived
+     */
+    boolean acquire() {
+      while (true) {
+        int count = references.get();
+        if (count < 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return false when there was no reference left to release
+     */
+    boolean release() {
+      while (true) {
+        int count = references.get();
+        if (count <= 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count - 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return true when the copy was unreferenced and can no longer be acquired
+     */
+    boolean retire() {
+      return references.compareAndSet(0, -1);
+    }
+  }
+}
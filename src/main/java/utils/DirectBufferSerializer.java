@@ -0,0 +1,72 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes values into a per-thread direct buffer that is reused across calls, so serializing a large value neither
+ * allocates nor holds a heap copy of its binary.
+ * <p/>
+ * The returned binary is only valid until the next serialization on the same thread. This is fine for the offheap
+ * and disk stores, which copy it into their own memory before returning, but not for the copiers of the heap store.
+ *
+ * @author Ludovic Orban
+ */
+public class DirectBufferSerializer<T> implements Serializer<T> {
+
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private final StreamingSerializer<T> serializer;
+
+  private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    }
+  };
+
+  public DirectBufferSerializer(StreamingSerializer<T> serializer) {
+    this.serializer = serializer;
+  }
+
+  @Override
+  public ByteBuffer serialize(T object) throws SerializerException {
+    int size = serializer.encodedSize(object);
+    ByteBuffer buffer = scratch.get();
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocateDirect(size > (1 << 30) ? size : Integer.highestOneBit(size - 1) << 1);
+      scratch.set(buffer);
+    }
+    buffer.clear();
+    serializer.serialize(object, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.read(binary);
+  }
+
+  @Override
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.equals(object, binary);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.ObjectGenerator;
+
+/**
+ * Generates fixed length Strings drawn from a limited set of distinct values, so that many keys map to equal values.
+ * A distinct value count of 0 makes every seed produce its own value.
+ *
+ * @author Ludovic Orban
+ */
+public class DistinctStringGenerator implements ObjectGenerator<String> {
+  private final int length;
+  private final int distinctValues;
+  private final String[] strings;
+
+  public DistinctStringGenerator(int length, int distinctValues) {
+    if (length <= 0) {
+      throw new IllegalStateException("Can not generate a String with a length less or equal to 0");
+    }
+    if (distinctValues < 0) {
+      throw new IllegalStateException("Can not generate a negative number of distinct values");
+    }
+    this.length = length;
+    this.distinctValues = distinctValues;
+    this.strings = new String[distinctValues];
+    for (int i = 0; i < distinctValues; i++) {
+      strings[i] = build(i);
+    }
+  }
+
+  public String generate(Long seed) {
+    if (distinctValues == 0) {
+      return build(seed);
+    }
+    return strings[(int) Math.abs(seed % distinctValues)];
+  }
+
+  public String getDescription() {
+    return "String (length = " + length + ", distinct values = " + (distinctValues == 0 ? "all" : distinctValues) + ")";
+  }
+
+  private String build(long index) {
+    String suffix = Long.toString(index);
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = suffix.length(); i < length; i++) {
+      sb.append('0');
+    }
+    sb.append(suffix);
+    return sb.length() > length ? sb.substring(sb.length() - length) : sb.toString();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.ObjectGenerator;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Loads an Ehcache 2 cache with {@link Ehcache#put(Element)}, or {@link Ehcache#putAll(Collection)} by batches.
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache2BulkLoader<K, V> extends BulkLoader {
+
+  private final Ehcache cache;
+  private final ObjectGenerator<K> keyGenerator;
+  private final ObjectGenerator<V> valueGenerator;
+
+  public Ehcache2BulkLoader(Ehcache cache, ObjectGenerator<K> keyGenerator, ObjectGenerator<V> valueGenerator,
+                            long nbKeys, int threads, int batchSize, File diskPath) {
+    super(nbKeys, threads, batchSize, diskPath);
+    this.cache = cache;
+    this.keyGenerator = keyGenerator;
+    this.valueGenerator = valueGenerator;
+  }
+
+  @Override
+  protected void put(long key) {
+    cache.put(new Element(keyGenerator.generate(key), valueGenerator.generate(key)));
+  }
+
+  @Override
+  protected void putAll(long fromKey, long toKey) {
+    List<Element> batch = new ArrayList<Element>((int) (toKey - fromKey));
+    for (long key = fromKey; key < toKey; key++) {
+      batch.add(new Element(keyGenerator.generate(key), valueGenerator.generate(key)));
+    }
+    cache.putAll(batch);
+  }
+}
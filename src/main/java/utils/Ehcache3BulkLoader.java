@@ -0,0 +1,57 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.ObjectGenerator;
+import org.ehcache.Cache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads an Ehcache 3 cache with {@link Cache#put(Object, Object)}, or {@link Cache#putAll(Map)} by batches.
+ *
+ * @author Ludovic Orban
+ */
+public class Ehcache3BulkLoader<K, V> extends BulkLoader {
+
+  private final Cache<K, V> cache;
+  private final ObjectGenerator<K> keyGenerator;
+  private final ObjectGenerator<V> valueGenerator;
+
+  public Ehcache3BulkLoader(Cache<K, V> cache, ObjectGenerator<K> keyGenerator, ObjectGenerator<V> valueGenerator,
+                            long nbKeys, int threads, int batchSize, File diskPath) {
+    super(nbKeys, threads, batchSize, diskPath);
+    this.cache = cache;
+    this.keyGenerator = keyGenerator;
+    this.valueGenerator = valueGenerator;
+  }
+
+  @Override
+  protected void put(long key) {
+    cache.put(keyGenerator.generate(key), valueGenerator.generate(key));
+  }
+
+  @Override
+  protected void putAll(long fromKey, long toKey) {
+    Map<K, V> batch = new HashMap<K, V>((int) ((toKey - fromKey) * 4 / 3 + 1));
+    for (long key = fromKey; key < toKey; key++) {
+      batch.put(keyGenerator.generate(key), valueGenerator.generate(key));
+    }
+    cache.putAll(batch);
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import net.sf.ehcache.util.concurrent.LongAdder;
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encrypts the output of another serializer with AES-GCM, so that values are never stored in clear in the offheap
+ * or disk tiers. A binary is the 12 byte IV followed by the ciphertext and the 16 byte authentication tag.
+ * <p/>
+ * Every thread keeps its own {@link Cipher} and IV buffer, and encrypts straight into the returned buffer. IVs are
+ * a random prefix drawn once per key followed by a counter, both shared by all the serializers of the JVM using that
+ * key, so they never repeat for a given key within a JVM. Across JVMs, e.g. a key kept for a persistent disk tier,
+ * only the random 32 bit prefix tells the runs apart and a repeat becomes likely after tens of thousands of restarts:
+ * rotate such keys.
+ * <p/>
+ * Needs a Java 8 runtime, SunJCE has no GCM implementation before that.
+ *
+ * @author Ludovic Orban
+ */
+public class EncryptingSerializer<T> implements Serializer<T> {
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final int COUNTERS_PER_THREAD = 1 << 20;
+  private static final Map<SecretKey, IvSource> IV_SOURCES = new WeakHashMap<SecretKey, IvSource>();
+
+  public final LongAdder encryptions = new LongAdder();
+  public final LongAdder encryptNanos = new LongAdder();
+  public final LongAdder decryptions = new LongAdder();
+  public final LongAdder decryptNanos = new LongAdder();
+
+  private final Serializer<T> serializer;
+  private final SecretKey key;
+  private final IvSource ivSource;
+
+  private final ThreadLocal<CipherState> cipherState = new ThreadLocal<CipherState>() {
+    @Override
+    protected CipherState initialValue() {
+      try {
+        return new CipherState(Cipher.getInstance(TRANSFORMATION));
+      } catch (GeneralSecurityException e) {
+        throw new SerializerException("Cannot create " + TRANSFORMATION + " cipher", e);
+      }
+    }
+  };
+
+  public EncryptingSerializer(Serializer<T> serializer) {
+    this(serializer, randomKey());
+  }
+
+  public EncryptingSerializer(Serializer<T> serializer, SecretKey key) {
+    this.serializer = serializer;
+    this.key = key;
+    synchronized (IV_SOURCES) {
+      IvSource source = IV_SOURCES.get(key);
+      if (source == null) {
+        source = new IvSource();
+        IV_SOURCES.put(key, source);
+      }
+      this.ivSource = source;
+    }
+  }
+
+  /**
+   * @return a new random 128 bit AES key
+   */
+  public static SecretKey randomKey() {
+    try {
+      KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+      keyGenerator.init(128);
+      return keyGenerator.generateKey();
+    } catch (GeneralSecurityException e) {
+      throw new SerializerException("Cannot generate AES key", e);
+    }
+  }
+
+  @Override
+  public ByteBuffer serialize(T object) throws SerializerException {
+    ByteBuffer plaintext = serializer.serialize(object);
+    long start = System.nanoTime();
+    CipherState state = cipherState.get();
+    byte[] iv = state.nextIv();
+    ByteBuffer binary = ByteBuffer.allocate(IV_LENGTH + plaintext.remaining() + TAG_LENGTH);
+    binary.put(iv);
+    try {
+      state.cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+      state.cipher.doFinal(plaintext, binary);
+    } catch (GeneralSecurityException e) {
+      throw new SerializerException("Cannot encrypt value", e);
+    }
+    binary.flip();
+    encryptNanos.add(System.nanoTime() - start);
+    encryptions.increment();
+    return binary;
+  }
+
+  @Override
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.read(decrypt(binary));
+  }
+
+  @Override
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return serializer.equals(object, decrypt(binary));
+  }
+
+  /**
+   * @return the average time spent encrypting a value, in nanoseconds
+   */
+  public double nanosPerEncryption() {
+    long count = encryptions.sum();
+    return count == 0 ? 0.0 : (double) encryptNanos.sum() / count;
+  }
+
+  /**
+   * @return the average time spent decrypting a value, in nanoseconds
+   */
+  public double nanosPerDecryption() {
+    long count = decryptions.sum();
+    return count == 0 ? 0.0 : (double) decryptNanos.sum() / count;
+  }
+
+  private ByteBuffer decrypt(ByteBuffer binary) throws SerializerException {
+    long start = System.nanoTime();
+    int length = binary.remaining() - IV_LENGTH - TAG_LENGTH;
+    if (length < 0) {
+      throw new SerializerException("Truncated encrypted value of " + binary.remaining() + " bytes");
+    }
+    CipherState state = cipherState.get();
+    ByteBuffer ciphertext = binary.duplicate();
+    ciphertext.get(state.iv);
+    ByteBuffer plaintext = ByteBuffer.allocate(length);
+    try {
+      state.cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, state.iv));
+      state.cipher.doFinal(ciphertext, plaintext);
+    } catch (GeneralSecurityException e) {
+      throw new SerializerException("Cannot decrypt value", e);
+    }
+    plaintext.flip();
+    decryptNanos.add(System.nanoTime() - start);
+    decryptions.increment();
+    return plaintext;
+  }
+
+  private static class IvSource {
+    private final int prefix = new SecureRandom().nextInt();
+    private final AtomicLong nextCounters = new AtomicLong();
+  }
+
+  private class CipherState {
+    private final Cipher cipher;
+    private final byte[] iv = new byte[IV_LENGTH];
+    private long counter;
+    private long counterLimit;
+
+    CipherState(Cipher cipher) {
+      this.cipher = cipher;
+    }
+
+    byte[] nextIv() {
+      if (counter == counterLimit) {
+        counter = ivSource.nextCounters.getAndAdd(COUNTERS_PER_THREAD);
+        counterLimit = counter + COUNTERS_PER_THREAD;
+      }
+      long value = counter++;
+      iv[0] = (byte) (ivSource.prefix >>> 24);
+      iv[1] = (byte) (ivSource.prefix >>> 16);
+      iv[2] = (byte) (ivSource.prefix >>> 8);
+      iv[3] = (byte) ivSource.prefix;
+      for (int i = 0; i < 8; i++) {
+        iv[4 + i] = (byte) (value >>> (56 - i * 8));
+      }
+      return iv;
+    }
+  }
+}
@@ -0,0 +1,593 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+import sun.reflect.ReflectionFactory;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes a {@link Serializable} value class field by field through method handles built once per class, without
+ * writing any class metadata. Supported fields are primitives, their boxes, {@link String} and final value classes
+ * that are themselves supported. Shared references are written once per occurrence, so identity within a graph is
+ * not preserved.
+ * <p/>
+ * Use {@link #forClass(Class, ClassLoader)}: it falls back to Java serialization for classes that cannot be
+ * encoded that way, and instances of subclasses are written with Java serialization too.
+ *
+ * @author Ludovic Orban
+ */
+public class FieldSerializer<T> implements Serializer<T> {
+
+  private static final byte FIELDS = 0;
+  private static final byte JAVA_SERIALIZATION = 1;
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final MethodType GET_OBJECT = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SET_OBJECT = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final Class<T> type;
+  private final ClassCodec codec;
+  private final ClassCachingCompactJavaSerializer<T> fallback;
+
+  private FieldSerializer(Class<T> type, ClassCodec codec, ClassLoader loader) {
+    this.type = type;
+    this.codec = codec;
+    this.fallback = new ClassCachingCompactJavaSerializer<T>(loader);
+  }
+
+  /**
+   * @return a field-by-field serializer for the given class, or a Java serialization based one when the class
+   * cannot be encoded field by field
+   */
+  public static <T> Serializer<T> forClass(Class<T> type, ClassLoader loader) {
+    ClassCodec codec = classCodec(type, new HashSet<Class<?>>());
+    if (codec == null) {
+      return new ClassCachingCompactJavaSerializer<T>(loader);
+    }
+    return new FieldSerializer<T>(type, codec, loader);
+  }
+
+  @Override
+  public ByteBuffer serialize(T object) throws SerializerException {
+    if (object.getClass() != type) {
+      ByteBuffer serialized = fallback.serialize(object);
+      ByteBuffer byteBuffer = ByteBuffer.allocate(1 + serialized.remaining());
+      byteBuffer.put(JAVA_SERIALIZATION).put(serialized).flip();
+      return byteBuffer;
+    }
+
+    try {
+      ByteBuffer byteBuffer = ByteBuffer.allocate(1 + codec.size(object));
+      byteBuffer.put(FIELDS);
+      codec.write(object, byteBuffer);
+      byteBuffer.flip();
+      return byteBuffer;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new SerializerException(t);
+    }
+  }
+
+  @Override
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    byte encoding = binary.get();
+    if (encoding == JAVA_SERIALIZATION) {
+      return fallback.read(binary);
+    }
+
+    try {
+      return type.cast(codec.read(binary));
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new SerializerException(t);
+    }
+  }
+
+  @Override
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return object.equals(read(binary));
+  }
+
+  private static ClassCodec classCodec(Class<?> klazz, Set<Class<?>> inProgress) {
+    if (!Serializable.class.isAssignableFrom(klazz) || Externalizable.class.isAssignableFrom(klazz)
+        || klazz.isArray() || klazz.isEnum() || klazz.isInterface() || Modifier.isAbstract(klazz.getModifiers())
+        || !inProgress.add(klazz)) {
+      return null;
+    }
+
+    try {
+      List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+      Class<?> nonSerializable = klazz;
+      while (Serializable.class.isAssignableFrom(nonSerializable)) {
+        if (hasCustomSerialization(nonSerializable)) {
+          return null;
+        }
+        hierarchy.add(0, nonSerializable);
+        nonSerializable = nonSerializable.getSuperclass();
+      }
+
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      List<FieldCodec> fieldCodecs = new ArrayList<FieldCodec>();
+      for (Class<?> c : hierarchy) {
+        for (Field field : serializableFields(c)) {
+          field.setAccessible(true);
+          MethodHandle getter = lookup.unreflectGetter(field);
+          MethodHandle setter = lookup.unreflectSetter(field);
+          FieldCodec fieldCodec = fieldCodec(field.getType(), getter, setter, inProgress);
+          if (fieldCodec == null) {
+            return null;
+          }
+          fieldCodecs.add(fieldCodec);
+        }
+      }
+
+      // same instantiation as Java serialization: run the no-arg constructor of the first non-serializable class
+      Constructor<?> superConstructor = nonSerializable.getDeclaredConstructor();
+      if (Modifier.isPrivate(superConstructor.getModifiers())) {
+        return null;
+      }
+      // a serialization constructor only allocates the right class when invoked reflectively, not through a handle
+      Constructor<?> instantiator = ReflectionFactory.getReflectionFactory().newConstructorForSerialization(klazz, superConstructor);
+      instantiator.setAccessible(true);
+
+      return new ClassCodec(instantiator, fieldCodecs.toArray(new FieldCodec[fieldCodecs.size()]));
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    } finally {
+      inProgress.remove(klazz);
+    }
+  }
+
+  private static boolean hasCustomSerialization(Class<?> klazz) {
+    for (String method : Arrays.asList("writeReplace", "readResolve", "readObjectNoData")) {
+      if (declaresMethod(klazz, method)) {
+        return true;
+      }
+    }
+    return declaresMethod(klazz, "writeObject", ObjectOutputStream.class) || declaresMethod(klazz, "readObject", ObjectInputStream.class)
+        || declaresField(klazz, "serialPersistentFields");
+  }
+
+  private static boolean declaresMethod(Class<?> klazz, String name, Class<?>... parameterTypes) {
+    try {
+      klazz.getDeclaredMethod(name, parameterTypes);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static boolean declaresField(Class<?> klazz, String name) {
+    try {
+      klazz.getDeclaredField(name);
+      return true;
+    } catch (NoSuchFieldException e) {
+      return false;
+    }
+  }
+
+  private static List<Field> serializableFields(Class<?> klazz) {
+    List<Field> fields = new ArrayList<Field>();
+    for (Field field : klazz.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+        fields.add(field);
+      }
+    }
+    // the same order ObjectStreamClass uses: primitives first, then by name
+    Collections.sort(fields, new Comparator<Field>() {
+      @Override
+      public int compare(Field f1, Field f2) {
+        return new ObjectStreamField(f1.getName(), f1.getType()).compareTo(new ObjectStreamField(f2.getName(), f2.getType()));
+      }
+    });
+    return fields;
+  }
+
+  private static FieldCodec fieldCodec(Class<?> fieldType, MethodHandle getter, MethodHandle setter, Set<Class<?>> inProgress) {
+    if (fieldType.isPrimitive()) {
+      return new PrimitiveFieldCodec(PrimitiveKind.of(fieldType), getter, setter);
+    }
+
+    ValueCodec valueCodec = VALUE_CODECS.get(fieldType);
+    if (valueCodec == null) {
+      if (!Modifier.isFinal(fieldType.getModifiers())) {
+        // the runtime type could be any subclass
+        return null;
+      }
+      valueCodec = classCodec(fieldType, inProgress);
+      if (valueCodec == null) {
+        return null;
+      }
+    }
+    return new ReferenceFieldCodec(valueCodec, getter.asType(GET_OBJECT), setter.asType(SET_OBJECT));
+  }
+
+  private interface ValueCodec {
+    int size(Object value) throws Throwable;
+
+    void write(Object value, ByteBuffer out) throws Throwable;
+
+    Object read(ByteBuffer in) throws Throwable;
+  }
+
+  private interface FieldCodec {
+    int size(Object owner) throws Throwable;
+
+    void write(Object owner, ByteBuffer out) throws Throwable;
+
+    void read(Object owner, ByteBuffer in) throws Throwable;
+  }
+
+  private static class ClassCodec implements ValueCodec {
+    private final Constructor<?> instantiator;
+    private final FieldCodec[] fields;
+
+    ClassCodec(Constructor<?> instantiator, FieldCodec[] fields) {
+      this.instantiator = instantiator;
+      this.fields = fields;
+    }
+
+    @Override
+    public int size(Object value) throws Throwable {
+      int size = 0;
+      for (FieldCodec field : fields) {
+        size += field.size(value);
+      }
+      return size;
+    }
+
+    @Override
+    public void write(Object value, ByteBuffer out) throws Throwable {
+      for (FieldCodec field : fields) {
+        field.write(value, out);
+      }
+    }
+
+    @Override
+    public Object read(ByteBuffer in) throws Throwable {
+      Object value = instantiator.newInstance();
+      for (FieldCodec field : fields) {
+        field.read(value, in);
+      }
+      return value;
+    }
+  }
+
+  private static class ReferenceFieldCodec implements FieldCodec {
+    private final ValueCodec codec;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    ReferenceFieldCodec(ValueCodec codec, MethodHandle getter, MethodHandle setter) {
+      this.codec = codec;
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    @Override
+    public int size(Object owner) throws Throwable {
+      Object value = (Object) getter.invokeExact(owner);
+      return value == null ? 1 : 1 + codec.size(value);
+    }
+
+    @Override
+    public void write(Object owner, ByteBuffer out) throws Throwable {
+      Object value = (Object) getter.invokeExact(owner);
+      if (value == null) {
+        out.put((byte) 0);
+      } else {
+        out.put((byte) 1);
+        codec.write(value, out);
+      }
+    }
+
+    @Override
+    public void read(Object owner, ByteBuffer in) throws Throwable {
+      if (in.get() != 0) {
+        setter.invokeExact(owner, codec.read(in));
+      }
+    }
+  }
+
+  private enum PrimitiveKind {
+    BOOLEAN(boolean.class, 1), BYTE(byte.class, 1), CHAR(char.class, 2), SHORT(short.class, 2),
+    INT(int.class, 4), FLOAT(float.class, 4), LONG(long.class, 8), DOUBLE(double.class, 8);
+
+    private final Class<?> type;
+    private final int size;
+
+    PrimitiveKind(Class<?> type, int size) {
+      this.type = type;
+      this.size = size;
+    }
+
+    static PrimitiveKind of(Class<?> type) {
+      for (PrimitiveKind kind : values()) {
+        if (kind.type == type) {
+          return kind;
+        }
+      }
+      throw new AssertionError("Unexpected primitive type " + type);
+    }
+  }
+
+  private static class PrimitiveFieldCodec implements FieldCodec {
+    private final PrimitiveKind kind;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    PrimitiveFieldCodec(PrimitiveKind kind, MethodHandle getter, MethodHandle setter) {
+      this.kind = kind;
+      this.getter = getter.asType(MethodType.methodType(kind.type, Object.class));
+      this.setter = setter.asType(MethodType.methodType(void.class, Object.class, kind.type));
+    }
+
+    @Override
+    public int size(Object owner) {
+      return kind.size;
+    }
+
+    @Override
+    public void write(Object owner, ByteBuffer out) throws Throwable {
+      switch (kind) {
+        case BOOLEAN:
+          out.put((boolean) getter.invokeExact(owner) ? (byte) 1 : (byte) 0);
+          break;
+        case BYTE:
+          out.put((byte) getter.invokeExact(owner));
+          break;
+        case CHAR:
+          out.putChar((char) getter.invokeExact(owner));
+          break;
+        case SHORT:
+          out.putShort((short) getter.invokeExact(owner));
+          break;
+        case INT:
+          out.putInt((int) getter.invokeExact(owner));
+          break;
+        case FLOAT:
+          out.putFloat((float) getter.invokeExact(owner));
+          break;
+        case LONG:
+          out.putLong((long) getter.invokeExact(owner));
+          break;
+        case DOUBLE:
+          out.putDouble((double) getter.invokeExact(owner));
+          break;
+        default:
+          throw new AssertionError(kind);
+      }
+    }
+
+    @Override
+    public void read(Object owner, ByteBuffer in) throws Throwable {
+      switch (kind) {
+        case BOOLEAN:
+          setter.invokeExact(owner, in.get() != 0);
+          break;
+        case BYTE:
+          setter.invokeExact(owner, in.get());
+          break;
+        case CHAR:
+          setter.invokeExact(owner, in.getChar());
+          break;
+        case SHORT:
+          setter.invokeExact(owner, in.getShort());
+          break;
+        case INT:
+          setter.invokeExact(owner, in.getInt());
+          break;
+        case FLOAT:
+          setter.invokeExact(owner, in.getFloat());
+          break;
+        case LONG:
+          setter.invokeExact(owner, in.getLong());
+          break;
+        case DOUBLE:
+          setter.invokeExact(owner, in.getDouble());
+          break;
+        default:
+          throw new AssertionError(kind);
+      }
+    }
+  }
+
+  private static final Map<Class<?>, ValueCodec> VALUE_CODECS = new HashMap<Class<?>, ValueCodec>();
+
+  static {
+    VALUE_CODECS.put(String.class, new ValueCodec() {
+      @Override
+      public int size(Object value) {
+        String string = (String) value;
+        return 4 + (isLatin1(string) ? string.length() : string.length() * 2);
+      }
+
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        String string = (String) value;
+        int length = string.length();
+        // the sign of the length tells whether chars are stored as 1 byte (latin-1) or 2 bytes
+        if (isLatin1(string)) {
+          out.putInt(length);
+          for (int i = 0; i < length; i++) {
+            out.put((byte) string.charAt(i));
+          }
+        } else {
+          out.putInt(-length - 1);
+          for (int i = 0; i < length; i++) {
+            out.putChar(string.charAt(i));
+          }
+        }
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        int length = in.getInt();
+        if (length >= 0) {
+          byte[] bytes = new byte[length];
+          in.get(bytes);
+          return new String(bytes, ISO_8859_1);
+        } else {
+          char[] chars = new char[-length - 1];
+          in.asCharBuffer().get(chars);
+          in.position(in.position() + chars.length * 2);
+          return new String(chars);
+        }
+      }
+
+      private boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+          if (string.charAt(i) > 0xFF) {
+            return false;
+          }
+        }
+        return true;
+      }
+    });
+    VALUE_CODECS.put(Boolean.class, new BoxedCodec(1) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.put((Boolean) value ? (byte) 1 : (byte) 0);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.get() != 0;
+      }
+    });
+    VALUE_CODECS.put(Byte.class, new BoxedCodec(1) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.put((Byte) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.get();
+      }
+    });
+    VALUE_CODECS.put(Character.class, new BoxedCodec(2) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putChar((Character) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getChar();
+      }
+    });
+    VALUE_CODECS.put(Short.class, new BoxedCodec(2) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putShort((Short) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getShort();
+      }
+    });
+    VALUE_CODECS.put(Integer.class, new BoxedCodec(4) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putInt((Integer) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getInt();
+      }
+    });
+    VALUE_CODECS.put(Float.class, new BoxedCodec(4) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putFloat((Float) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getFloat();
+      }
+    });
+    VALUE_CODECS.put(Long.class, new BoxedCodec(8) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putLong((Long) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getLong();
+      }
+    });
+    VALUE_CODECS.put(Double.class, new BoxedCodec(8) {
+      @Override
+      public void write(Object value, ByteBuffer out) {
+        out.putDouble((Double) value);
+      }
+
+      @Override
+      public Object read(ByteBuffer in) {
+        return in.getDouble();
+      }
+    });
+  }
+
+  private static abstract class BoxedCodec implements ValueCodec {
+    private final int size;
+
+    BoxedCodec(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public int size(Object value) {
+      return size;
+    }
+  }
+}
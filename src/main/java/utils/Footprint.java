@@ -0,0 +1,48 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.ObjectGenerator;
+import org.ehcache.spi.serialization.Serializer;
+
+/**
+ * @author Ludovic Orban
+ */
+public class Footprint {
+
+  /**
+   * Prints the average serialized size per entry of the generated objects with both serializers, and what the
+   * first one saves over the baseline.
+   */
+  public static <T> void printSaving(String label, ObjectGenerator<T> generator, long nbEntries,
+                                     Serializer<T> serializer, Serializer<T> baseline) {
+    long size = 0;
+    long baselineSize = 0;
+    for (long i = 0; i < nbEntries; i++) {
+      T object = generator.generate(i);
+      size += serializer.serialize(object).remaining();
+      baselineSize += baseline.serialize(object).remaining();
+    }
+
+    double perEntry = (double) size / nbEntries;
+    double baselinePerEntry = (double) baselineSize / nbEntries;
+    System.out.printf("%s footprint: %.1f bytes/entry with %s, %.1f bytes/entry with %s\n", label,
+        perEntry, serializer.getClass().getSimpleName(), baselinePerEntry, baseline.getClass().getSimpleName());
+    System.out.printf("%s saving: %.1f bytes/entry, %.1f MB for %d entries\n", label,
+        baselinePerEntry - perEntry, (baselineSize - size) / 1024.0 / 1024.0, nbEntries);
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.SequenceGenerator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws keys from [0, nbKeys) so that hotAccess percent of the draws fall in the hot set, made of the first hotKeys
+ * percent of the keys, and the others in the cold set, uniformly within each set.
+ *
+ * @author Ludovic Orban
+ */
+public class HotspotSequenceGenerator implements SequenceGenerator {
+
+  private final long nbKeys;
+  private final long hotKeys;
+  private final double hotAccessFraction;
+
+  public HotspotSequenceGenerator(long nbKeys, double hotKeysPercent, double hotAccessPercent) {
+    if (hotKeysPercent < 0 || hotKeysPercent > 100 || hotAccessPercent < 0 || hotAccessPercent > 100) {
+      throw new IllegalArgumentException("hot keys and hot access are percentages, got " + hotKeysPercent + " and " + hotAccessPercent);
+    }
+    this.nbKeys = nbKeys;
+    this.hotKeys = hotKeysPercent == 0 || hotAccessPercent == 0 ? 0 : Math.max(1L, (long) (nbKeys * hotKeysPercent / 100));
+    this.hotAccessFraction = hotKeys == 0 ? 0.0 : hotKeys == nbKeys ? 1.0 : hotAccessPercent / 100;
+  }
+
+  @Override
+  public long next() {
+    // a single draw decides both the set and the key within the set
+    double draw = ThreadLocalRandom.current().nextDouble();
+    if (draw < hotAccessFraction) {
+      return (long) (draw / hotAccessFraction * hotKeys);
+    }
+    return hotKeys + (long) ((draw - hotAccessFraction) / (1.0 - hotAccessFraction) * (nbKeys - hotKeys));
+  }
+
+  @Override
+  public String getDescription() {
+    return "Hotspot distribution (keys = " + nbKeys + ", hot keys = " + hotKeys + ", hot access = "
+        + (hotAccessFraction * 100) + "%)";
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.SequenceGenerator;
+
+/**
+ * Parses the key distributions that rainfall does not provide :
+ * <ul>
+ * <li>zipfian:THETA</li>
+ * <li>scrambledZipfian:THETA</li>
+ * <li>hotspot:HOT_ACCESS:HOT_KEYS, HOT_ACCESS percent of the draws on HOT_KEYS percent of the keys</li>
+ * <li>latest:THETA, with the mixed workload only, its puts and putIfAbsents inserting the new latest keys</li>
+ * </ul>
+ *
+ * @author Ludovic Orban
+ */
+public class KeyDistributions {
+
+  /**
+   * @return the sequence generator of -DkeyDistribution, or null when it is not set to one of the above
+   */
+  public static SequenceGenerator fromSystemProperty(int nbKeys) {
+    return parse(System.getProperty("keyDistribution", ""), nbKeys);
+  }
+
+  /**
+   * @return the sequence generator of the spec, or null when the spec is not one of the above
+   */
+  public static SequenceGenerator parse(String spec, int nbKeys) {
+    String[] args = spec.split(":");
+    String type = args[0];
+    if (type.equals("zipfian") && args.length == 2) {
+      return new ZipfianSequenceGenerator(nbKeys, Double.parseDouble(args[1]));
+    } else if (type.equals("scrambledZipfian") && args.length == 2) {
+      return new ZipfianSequenceGenerator(nbKeys, Double.parseDouble(args[1]), true);
+    } else if (type.equals("hotspot") && args.length == 3) {
+      return new HotspotSequenceGenerator(nbKeys, Double.parseDouble(args[2]), Double.parseDouble(args[1]));
+    } else if (type.equals("latest") && args.length == 2) {
+      return new LatestSequenceGenerator(nbKeys, Double.parseDouble(args[1]));
+    } else if (type.equals("zipfian") || type.equals("scrambledZipfian") || type.equals("hotspot") || type.equals("latest")) {
+      throw new IllegalArgumentException("Wrong arguments in key distribution " + spec);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records operation latencies into per-thread HdrHistograms, merged and logged every second.
+ * <p/>
+ * Two latencies are kept for every operation : the service time, from the actual start of the operation, and the
+ * response time, from the time the operation was meant to start. When the load generator falls behind its schedule,
+ * only the response time shows the queueing delay a caller would have seen, which is what corrects the
+ * coordinated omission of the service time.
+ * <p/>
+ * Writes <name>-service.hlog, <name>-response.hlog and <name>-percentiles.txt to the report directory, and
+ * <name>-timeline.csv with the offered and achieved TPS and the response time percentiles of every second.
+ *
+ * @author Ludovic Orban
+ */
+public class LatencyRecorder {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MICRO = 1000.0;
+
+  private final File reportPath;
+  private final String name;
+  private final List<ThreadRecorders> threadRecorders = new CopyOnWriteArrayList<ThreadRecorders>();
+  private final ThreadLocal<ThreadRecorders> localRecorders = new ThreadLocal<ThreadRecorders>() {
+    @Override
+    protected ThreadRecorders initialValue() {
+      ThreadRecorders recorders = new ThreadRecorders();
+      threadRecorders.add(recorders);
+      return recorders;
+    }
+  };
+
+  private final Histogram serviceTotal = new Histogram(SIGNIFICANT_DIGITS);
+  private final Histogram responseTotal = new Histogram(SIGNIFICANT_DIGITS);
+  private HistogramLogWriter serviceLog;
+  private HistogramLogWriter responseLog;
+  private PrintStream timeline;
+  private volatile TrafficShaper trafficShaper;
+  private long startTime;
+  private Thread reporter;
+  private volatile boolean running;
+  private long intervalStart;
+
+  public LatencyRecorder(File reportPath, String name) {
+    this.reportPath = reportPath;
+    this.name = name;
+  }
+
+  /**
+   * Makes the timeline report the TPS offered by the shaper.
+   */
+  public void setTrafficShaper(TrafficShaper trafficShaper) {
+    this.trafficShaper = trafficShaper;
+  }
+
+  public void record(long intendedStartNanos, long startNanos, long endNanos) {
+    ThreadRecorders recorders = localRecorders.get();
+    recorders.service.recordValue(endNanos - startNanos);
+    recorders.response.recordValue(endNanos - intendedStartNanos);
+  }
+
+  public synchronized void start() throws FileNotFoundException {
+    reportPath.mkdirs();
+    long now = System.currentTimeMillis();
+    serviceLog = openLog("service", now);
+    responseLog = openLog("response", now);
+    timeline = new PrintStream(new File(reportPath, name + "-timeline.csv"));
+    timeline.println("seconds,offered tps,achieved tps,p50 us,p99 us,p99.9 us,max us");
+    startTime = now;
+    intervalStart = now;
+    running = true;
+
+    reporter = new Thread(name + " latency reporter") {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException e) {
+            break;
+          }
+          logInterval();
+        }
+      }
+    };
+    reporter.setDaemon(true);
+    reporter.start();
+  }
+
+  /**
+   * Logs the last interval, closes the logs and writes the percentile summary.
+   */
+  public void stop() throws FileNotFoundException, InterruptedException {
+    running = false;
+    reporter.interrupt();
+    reporter.join();
+    logInterval();
+    serviceLog.close();
+    responseLog.close();
+    timeline.close();
+
+    PrintStream out = new PrintStream(new File(reportPath, name + "-percentiles.txt"));
+    try {
+      printSummary(out);
+      out.println();
+      out.println("service time distribution, in us");
+      serviceTotal.outputPercentileDistribution(out, NANOS_PER_MICRO);
+      out.println();
+      out.println("response time distribution, in us");
+      responseTotal.outputPercentileDistribution(out, NANOS_PER_MICRO);
+    } finally {
+      out.close();
+    }
+    printSummary(System.out);
+  }
+
+  public void printSummary(PrintStream out) {
+    out.println(name + " latencies in us          p50        p90        p99      p99.9     p99.99        max");
+    printPercentiles(out, "service time ", serviceTotal);
+    printPercentiles(out, "response time", responseTotal);
+  }
+
+  private static void printPercentiles(PrintStream out, String label, Histogram histogram) {
+    out.printf("  %s (%9d) %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f\n", label, histogram.getTotalCount(),
+        histogram.getValueAtPercentile(50.0) / NANOS_PER_MICRO, histogram.getValueAtPercentile(90.0) / NANOS_PER_MICRO,
+        histogram.getValueAtPercentile(99.0) / NANOS_PER_MICRO, histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+        histogram.getValueAtPercentile(99.99) / NANOS_PER_MICRO, histogram.getMaxValue() / NANOS_PER_MICRO);
+  }
+
+  private HistogramLogWriter openLog(String kind, long startTime) throws FileNotFoundException {
+    HistogramLogWriter log = new HistogramLogWriter(new File(reportPath, name + "-" + kind + ".hlog"));
+    log.outputComment(name + " " + kind + " time, in ns");
+    log.outputLogFormatVersion();
+    log.setBaseTime(startTime);
+    log.outputStartTime(startTime);
+    log.outputBaseTime(startTime);
+    log.outputLegend();
+    return log;
+  }
+
+  private synchronized void logInterval() {
+    long now = System.currentTimeMillis();
+    Histogram service = new Histogram(SIGNIFICANT_DIGITS);
+    Histogram response = new Histogram(SIGNIFICANT_DIGITS);
+    for (ThreadRecorders recorders : threadRecorders) {
+      service.add(recorders.service.getIntervalHistogram());
+      response.add(recorders.response.getIntervalHistogram());
+    }
+    long intervalMillis = Math.max(1L, now - intervalStart);
+    TrafficShaper shaper = trafficShaper;
+    timeline.printf(Locale.ROOT, "%.1f,%s,%d,%.1f,%.1f,%.1f,%.1f\n", (now - startTime) / 1000.0,
+        shaper == null ? "" : Long.toString(shaper.drainOfferedOps() * 1000 / intervalMillis),
+        response.getTotalCount() * 1000 / intervalMillis,
+        response.getValueAtPercentile(50.0) / NANOS_PER_MICRO, response.getValueAtPercentile(99.0) / NANOS_PER_MICRO,
+        response.getValueAtPercentile(99.9) / NANOS_PER_MICRO, response.getMaxValue() / NANOS_PER_MICRO);
+    timeline.flush();
+
+    service.setStartTimeStamp(intervalStart);
+    service.setEndTimeStamp(now);
+    response.setStartTimeStamp(intervalStart);
+    response.setEndTimeStamp(now);
+    intervalStart = now;
+
+    serviceLog.outputIntervalHistogram(service);
+    responseLog.outputIntervalHistogram(response);
+    serviceTotal.add(service);
+    responseTotal.add(response);
+  }
+
+  private static class ThreadRecorders {
+    private final SingleWriterRecorder service = new SingleWriterRecorder(SIGNIFICANT_DIGITS);
+    private final SingleWriterRecorder response = new SingleWriterRecorder(SIGNIFICANT_DIGITS);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.SequenceGenerator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Draws keys close to the latest inserted one, following a Zipfian distribution over the recency of the last nbKeys
+ * keys as YCSB's latest distribution does. The inserts take new keys past the end of the key space from
+ * {@link #nextInsertKey()}, and the latest key, which starts at the end of the loaded key space, moves as
+ * {@link #inserted(long)} is called once they are done, so without inserts this is a plain mirrored Zipfian.
+ *
+ * @author Ludovic Orban
+ */
+public class LatestSequenceGenerator implements SequenceGenerator {
+
+  private final ZipfianSequenceGenerator recency;
+  private final AtomicLong latest;
+  private final AtomicLong nextInsert;
+
+  public LatestSequenceGenerator(int nbKeys, double theta) {
+    this.recency = new ZipfianSequenceGenerator(nbKeys, theta);
+    this.latest = new AtomicLong(nbKeys - 1);
+    this.nextInsert = new AtomicLong(nbKeys);
+  }
+
+  /**
+   * @return a key never inserted before, growing the key space
+   */
+  public long nextInsertKey() {
+    return nextInsert.getAndIncrement();
+  }
+
+  /**
+   * Makes the given key the latest one, if it is newer than the current latest one.
+   */
+  public void inserted(long key) {
+    long current;
+    while ((current = latest.get()) < key) {
+      if (latest.compareAndSet(current, key)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public long next() {
+    return latest.get() - recency.next();
+  }
+
+  @Override
+  public String getDescription() {
+    return "Latest distribution (" + recency.getDescription() + ")";
+  }
+}
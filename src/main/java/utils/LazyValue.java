@@ -0,0 +1,129 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cache value that is kept in its serialized form until it is first accessed, so that gets which only check for
+ * presence, or only look at part of the binary, never pay for a full deserialization.
+ *
+ * @author Ludovic Orban
+ * @see LazyValueSerializer
+ */
+public final class LazyValue<T> {
+
+  private final Serializer<T> serializer;
+  private volatile byte[] binary;
+  private volatile T value;
+
+  LazyValue(Serializer<T> serializer, byte[] binary) {
+    this.serializer = serializer;
+    this.binary = binary;
+  }
+
+  private LazyValue(Serializer<T> serializer, T value) {
+    this.serializer = serializer;
+    this.value = value;
+  }
+
+  /**
+   * Wraps an already decoded value, e.g. to put it in a cache.
+   */
+  public static <T> LazyValue<T> of(T value, Serializer<T> serializer) {
+    if (value == null) {
+      throw new NullPointerException("Value cannot be null");
+    }
+    return new LazyValue<T>(serializer, value);
+  }
+
+  /**
+   * @return the value, deserializing it on the first call
+   */
+  public T get() throws SerializerException {
+    T decoded = value;
+    if (decoded == null) {
+      try {
+        decoded = serializer.read(ByteBuffer.wrap(binary));
+      } catch (ClassNotFoundException e) {
+        throw new SerializerException(e);
+      }
+      value = decoded;
+    }
+    return decoded;
+  }
+
+  public boolean isDecoded() {
+    return value != null;
+  }
+
+  /**
+   * @return a read-only view of the serialized value, for partial reads that understand its format
+   */
+  public ByteBuffer binary() throws SerializerException {
+    return ByteBuffer.wrap(bytes()).asReadOnlyBuffer();
+  }
+
+  /**
+   * @return the size of the serialized value, in bytes
+   */
+  public int size() throws SerializerException {
+    return bytes().length;
+  }
+
+  Serializer<T> serializer() {
+    return serializer;
+  }
+
+  byte[] bytes() throws SerializerException {
+    byte[] bytes = binary;
+    if (bytes == null) {
+      ByteBuffer serialized = serializer.serialize(value);
+      bytes = new byte[serialized.remaining()];
+      serialized.get(bytes);
+      binary = bytes;
+    }
+    return bytes;
+  }
+
+  byte[] bytesIfPresent() {
+    return binary;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (obj instanceof LazyValue) {
+      return get().equals(((LazyValue<?>) obj).get());
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return get().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return isDecoded() ? "LazyValue[" + value + "]" : "LazyValue[" + binary.length + " bytes]";
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes {@link LazyValue}s with another serializer. A read only copies the binary out of the store, the wrapped
+ * serializer is only invoked when the value is accessed.
+ * <p/>
+ * The binary format is the one of the wrapped serializer, so switching a cache to lazy values does not change
+ * its footprint.
+ *
+ * @author Ludovic Orban
+ */
+public class LazyValueSerializer<T> implements Serializer<LazyValue<T>> {
+
+  private final Serializer<T> serializer;
+
+  public LazyValueSerializer(Serializer<T> serializer) {
+    this.serializer = serializer;
+  }
+
+  /**
+   * @return a holder for the given value, using this serializer's wrapped serializer
+   */
+  public LazyValue<T> wrap(T value) {
+    return LazyValue.of(value, serializer);
+  }
+
+  @Override
+  public ByteBuffer serialize(LazyValue<T> object) throws SerializerException {
+    byte[] bytes = object.bytesIfPresent();
+    // bytes encoded by another serializer would later be decoded with this one
+    if (bytes != null && object.serializer() == serializer) {
+      return ByteBuffer.wrap(bytes);
+    }
+    return serializer.serialize(object.get());
+  }
+
+  @Override
+  public LazyValue<T> read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    // the store may reuse the buffer as soon as this returns, so the binary has to be copied
+    byte[] bytes = new byte[binary.remaining()];
+    binary.get(bytes);
+    return new LazyValue<T>(serializer, bytes);
+  }
+
+  @Override
+  public boolean equals(LazyValue<T> object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    byte[] bytes = object.bytesIfPresent();
+    if (bytes != null && object.serializer() == serializer && ByteBuffer.wrap(bytes).equals(binary)) {
+      return true;
+    }
+    // equal values are not guaranteed to have equal binaries
+    return serializer.equals(object.get(), binary);
+  }
+}
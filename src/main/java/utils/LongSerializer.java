@@ -0,0 +1,132 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores a {@link Long} as 8 fixed bytes, or as a zig-zag varint of 1 to 10 bytes in compact mode.
+ *
+ * @author Ludovic Orban
+ */
+public class LongSerializer implements Serializer<Long> {
+
+  /**
+   * Selects the key serializer of the scenarios: {@code fixed}, {@code varint}, or unset to keep the cache default.
+   */
+  public static final String KEY_SERIALIZER_PROPERTY = "keySerializer";
+
+  private final boolean compact;
+
+  public LongSerializer() {
+    this(false);
+  }
+
+  public LongSerializer(ClassLoader classLoader) {
+    this(false);
+  }
+
+  public LongSerializer(boolean compact) {
+    this.compact = compact;
+  }
+
+  /**
+   * @return the serializer selected by {@link #KEY_SERIALIZER_PROPERTY}, or null when none is selected
+   */
+  public static LongSerializer fromSystemProperty() {
+    String name = System.getProperty(KEY_SERIALIZER_PROPERTY);
+    if (name == null || name.isEmpty()) {
+      return null;
+    } else if (name.equals("fixed")) {
+      return new LongSerializer(false);
+    } else if (name.equals("varint")) {
+      return new LongSerializer(true);
+    } else {
+      throw new IllegalArgumentException("Unknown " + KEY_SERIALIZER_PROPERTY + " : " + name + " (expected fixed or varint)");
+    }
+  }
+
+  @Override
+  public ByteBuffer serialize(Long object) throws SerializerException {
+    long value = object;
+    if (!compact) {
+      ByteBuffer byteBuffer = ByteBuffer.allocate(8);
+      byteBuffer.putLong(value).flip();
+      return byteBuffer;
+    }
+
+    long zigZag = (value << 1) ^ (value >> 63);
+    ByteBuffer byteBuffer = ByteBuffer.allocate(varintSize(zigZag));
+    while ((zigZag & ~0x7FL) != 0) {
+      byteBuffer.put((byte) ((zigZag & 0x7F) | 0x80));
+      zigZag >>>= 7;
+    }
+    byteBuffer.put((byte) zigZag).flip();
+    return byteBuffer;
+  }
+
+  @Override
+  public Long read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    if (!compact) {
+      return binary.getLong();
+    }
+
+    long zigZag = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = binary.get();
+      zigZag |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+      }
+    }
+    throw new SerializerException("Malformed varint");
+  }
+
+  @Override
+  public boolean equals(Long object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    long value = object;
+    if (!compact) {
+      return binary.remaining() == 8 && binary.getLong(binary.position()) == value;
+    }
+
+    long expected = (value << 1) ^ (value >> 63);
+    int size = binary.remaining();
+    if (size != varintSize(expected)) {
+      return false;
+    }
+    int position = binary.position();
+    for (int i = 0; i < size; i++) {
+      byte expectedByte = (byte) (i == size - 1 ? expected : (expected & 0x7F) | 0x80);
+      if (binary.get(position + i) != expectedByte) {
+        return false;
+      }
+      expected >>>= 7;
+    }
+    return true;
+  }
+
+  private static int varintSize(long zigZag) {
+    int size = 1;
+    while ((zigZag & ~0x7FL) != 0) {
+      zigZag >>>= 7;
+      size++;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.SequenceGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the operation and the key of every step of a mixed workload.
+ * <p/>
+ * The operation is drawn by weight, e.g. get:80,put:10,remove:2,putIfAbsent:4,replace:4, or with / separators in
+ * scenario files where commas list values. The keys are drawn from a sequence generator, by default a hotspot where
+ * hotAccess percent of the operations go to the first hotKeys percent of the key space. With a
+ * {@link LatestSequenceGenerator}, puts and putIfAbsents insert new keys instead, which the other operations then
+ * favour once {@link #inserted(OperationType, long)} reports them done.
+ *
+ * @author Ludovic Orban
+ */
+public class MixedWorkload {
+
+  public enum OperationType {
+    GET("get"), PUT("put"), REMOVE("remove"), PUT_IF_ABSENT("putIfAbsent"), REPLACE("replace");
+
+    private final String name;
+
+    OperationType(String name) {
+      this.name = name;
+    }
+
+    static OperationType fromName(String name) {
+      for (OperationType type : values()) {
+        if (type.name.equals(name)) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operation " + name + ", expected get, put, remove, putIfAbsent or replace");
+    }
+  }
+
+  private final String mix;
+  private final OperationType[] types;
+  private final int[] cumulativeWeights;
+  private final SequenceGenerator keys;
+
+  public MixedWorkload(String mix, long nbKeys, int hotKeysPercent, int hotAccessPercent) {
+    this(mix, new HotspotSequenceGenerator(nbKeys, hotKeysPercent, hotAccessPercent));
+  }
+
+  public MixedWorkload(String mix, SequenceGenerator keys) {
+    List<OperationType> types = new ArrayList<OperationType>();
+    List<Integer> weights = new ArrayList<Integer>();
+    int total = 0;
+    for (String entry : mix.split("[,/]")) {
+      String[] nameAndWeight = entry.trim().split(":");
+      if (nameAndWeight.length != 2) {
+        throw new IllegalArgumentException("Expected operation:weight in " + mix + ", got '" + entry + "'");
+      }
+      int weight = Integer.parseInt(nameAndWeight[1]);
+      if (weight > 0) {
+        total += weight;
+        types.add(OperationType.fromName(nameAndWeight[0]));
+        weights.add(total);
+      }
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("No operation with a positive weight in " + mix);
+    }
+
+    this.mix = mix;
+    this.types = types.toArray(new OperationType[types.size()]);
+    this.cumulativeWeights = new int[weights.size()];
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      cumulativeWeights[i] = weights.get(i);
+    }
+    this.keys = keys;
+  }
+
+  /**
+   * -Dmix, -DhotKeys and -DhotAccess, defaulting to 80% gets with 20% of the keys getting 80% of the accesses.
+   * -DkeyDistribution, when set to one of the {@link KeyDistributions}, replaces the hotspot.
+   */
+  public static MixedWorkload fromSystemProperties(int nbKeys) {
+    String mix = System.getProperty("mix", "get:80,put:10,remove:2,putIfAbsent:4,replace:4");
+    SequenceGenerator keys = KeyDistributions.fromSystemProperty(nbKeys);
+    if (keys != null) {
+      return new MixedWorkload(mix, keys);
+    }
+    return new MixedWorkload(mix, nbKeys, Integer.getInteger("hotKeys", 20), Integer.getInteger("hotAccess", 80));
+  }
+
+  public OperationType nextOperation() {
+    int draw = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      if (draw < cumulativeWeights[i]) {
+        return types[i];
+      }
+    }
+    throw new AssertionError();
+  }
+
+  public long nextKey(OperationType type) {
+    if (isInsert(type)) {
+      return ((LatestSequenceGenerator) keys).nextInsertKey();
+    }
+    return keys.next();
+  }
+
+  /**
+   * To be called once the operation on the key is done on every cache.
+   */
+  public void inserted(OperationType type, long key) {
+    if (isInsert(type)) {
+      ((LatestSequenceGenerator) keys).inserted(key);
+    }
+  }
+
+  private boolean isInsert(OperationType type) {
+    return (type == OperationType.PUT || type == OperationType.PUT_IF_ABSENT) && keys instanceof LatestSequenceGenerator;
+  }
+
+  public String getDescription() {
+    return "mix " + mix + ", " + keys.getDescription();
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the calling threads so that, together, they issue operations at a target throughput.
+ * <p/>
+ * Every thread follows its own schedule of intended start times, spaced by threads / target TPS. A thread that is
+ * ahead of its schedule parks until its next start time, spinning only for the last few microseconds that parking
+ * cannot honour. A thread that is behind never skips an operation and never waits, so it catches up as soon as it
+ * can, as real callers would, and the intended start time still accounts for the delay.
+ * <p/>
+ * With Poisson arrivals, the spacing is drawn from an exponential distribution of the same mean instead.
+ *
+ * @author Ludovic Orban
+ */
+public class OpenLoopPacer {
+
+  private static final long PARK_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(60);
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Returned by {@link #acquire()} instead of an intended start time when the target is 0: the operation must be
+   * skipped, so that the caller regularly gets control back, e.g. to notice the end of the run.
+   */
+  public static final long PAUSED = Long.MIN_VALUE;
+
+  private final long origin = System.nanoTime();
+  private final AtomicInteger threads = new AtomicInteger();
+  private final ThreadLocal<Schedule> schedules = new ThreadLocal<Schedule>() {
+    @Override
+    protected Schedule initialValue() {
+      threads.incrementAndGet();
+      return new Schedule();
+    }
+  };
+  private final boolean poissonArrivals;
+  private volatile long targetTps;
+
+  public OpenLoopPacer(long targetTps) {
+    this(targetTps, false);
+  }
+
+  public OpenLoopPacer(long targetTps, boolean poissonArrivals) {
+    this.targetTps = targetTps;
+    this.poissonArrivals = poissonArrivals;
+  }
+
+  public long getTargetTps() {
+    return targetTps;
+  }
+
+  /**
+   * Changes the target of all threads, from their next operation on. A target of 0 pauses them.
+   */
+  public void setTargetTps(long targetTps) {
+    this.targetTps = targetTps;
+  }
+
+  /**
+   * Waits until the calling thread's next operation is due.
+   *
+   * @return the time, in System.nanoTime() terms, at which the operation was meant to start, or {@link #PAUSED}
+   * after idling for a millisecond when the target is 0
+   */
+  public long acquire() {
+    Schedule schedule = schedules.get();
+    long tps = targetTps;
+    if (tps <= 0) {
+      LockSupport.parkNanos(IDLE_PARK_NANOS);
+      schedule.next = -1.0;
+      return PAUSED;
+    }
+
+    // kept as a double relative to the origin so that intervals that are not a whole number of ns do not drift
+    double interval = TimeUnit.SECONDS.toNanos(1) * (double) threads.get() / tps;
+    if (poissonArrivals) {
+      interval *= -Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+    }
+    long now = System.nanoTime() - origin;
+    if (schedule.next < 0.0) {
+      schedule.next = now;
+    }
+    long intendedStart = (long) schedule.next;
+    schedule.next += interval;
+
+    waitUntil(origin + intendedStart);
+    return origin + intendedStart;
+  }
+
+  /**
+   * Parks, then spins for the last few microseconds, until System.nanoTime() reaches the given time.
+   */
+  public static void waitUntil(long nanoTime) {
+    long wait = nanoTime - System.nanoTime();
+    while (wait > 0) {
+      if (wait > PARK_THRESHOLD_NANOS) {
+        LockSupport.parkNanos(wait - PARK_THRESHOLD_NANOS);
+      }
+      wait = nanoTime - System.nanoTime();
+    }
+  }
+
+  private static class Schedule {
+    private double next = -1.0;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link ClassCachingCompactJavaSerializer} that keeps its class descriptor mappings in a file, so that data left in
+ * a persistent tier can still be decoded after a restart.
+ *
+ * @author Ludovic Orban
+ */
+public class PersistentClassCachingCompactJavaSerializer<T> extends ClassCachingCompactJavaSerializer<T> {
+
+  private final File mappingsFile;
+  private final Map<Integer, ObjectStreamClass> persistedMappings;
+
+  public PersistentClassCachingCompactJavaSerializer(ClassLoader loader, File mappingsFile) {
+    this(loader, mappingsFile, loadMappings(mappingsFile));
+  }
+
+  private PersistentClassCachingCompactJavaSerializer(ClassLoader loader, File mappingsFile, Map<Integer, ObjectStreamClass> mappings) {
+    super(loader, mappings);
+    this.mappingsFile = mappingsFile;
+    this.persistedMappings = new HashMap<Integer, ObjectStreamClass>(mappings);
+  }
+
+  /**
+   * Returns the file holding the mappings of the given persistence directory, stored next to it.
+   */
+  public static File mappingsFile(File persistenceDirectory, String name) {
+    return new File(persistenceDirectory.getParentFile(), persistenceDirectory.getName() + "-" + name + ".mappings");
+  }
+
+  @Override
+  protected synchronized void mappingAdded(int rep, ObjectStreamClass disconnected) throws IOException {
+    // mappings are only ever added once per class, so rewriting the whole table is cheap
+    persistedMappings.put(rep, disconnected);
+    try {
+      writeMappings(mappingsFile, persistedMappings);
+    } catch (IOException e) {
+      // the mapping is not established, the next attempt must not persist it under this id
+      persistedMappings.remove(rep);
+      throw e;
+    }
+  }
+
+  private static Map<Integer, ObjectStreamClass> loadMappings(File file) {
+    Map<Integer, ObjectStreamClass> mappings = new HashMap<Integer, ObjectStreamClass>();
+    if (!file.isFile()) {
+      return mappings;
+    }
+
+    try {
+      ObjectInputStream oin = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))) {
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass osc) {
+          //Our stored OSC instances should not reference classes - doing so could cause perm-gen leaks
+          return null;
+        }
+      };
+      try {
+        int size = oin.readInt();
+        for (int i = 0; i < size; i++) {
+          int rep = oin.readInt();
+          mappings.put(rep, (ObjectStreamClass) oin.readObject());
+        }
+      } finally {
+        oin.close();
+      }
+    } catch (IOException e) {
+      throw new SerializerException("Cannot load serialization mappings from " + file, e);
+    } catch (ClassNotFoundException e) {
+      throw new SerializerException("Cannot load serialization mappings from " + file, e);
+    }
+    return mappings;
+  }
+
+  private static void writeMappings(File file, Map<Integer, ObjectStreamClass> mappings) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+
+    File tmp = new File(parent, file.getName() + ".tmp");
+    ObjectOutputStream oout = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      oout.writeInt(mappings.size());
+      for (Map.Entry<Integer, ObjectStreamClass> e : mappings.entrySet()) {
+        oout.writeInt(e.getKey());
+        oout.writeObject(e.getValue());
+      }
+    } finally {
+      oout.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
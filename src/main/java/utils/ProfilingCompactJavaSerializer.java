@@ -19,33 +19,53 @@ import net.sf.ehcache.util.concurrent.LongAdder;
 import org.ehcache.exceptions.SerializerException;
 import org.ehcache.impl.serialization.CompactJavaSerializer;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
+ * Samples one in {@code sampleRate} calls to {@code read} and {@code equals}, groups them by the top
+ * {@code stackDepth} frames of their call site and records histograms of the serialized sizes and of the time spent
+ * per call. Unsampled calls only pay for a random draw.
+ *
  * @author Ludovic Orban
  */
 public class ProfilingCompactJavaSerializer extends CompactJavaSerializer {
 
-  public final ConcurrentMap<String, LongAdder> reads = new ConcurrentHashMap<String, LongAdder>();
-  public final ConcurrentMap<String, LongAdder> equals = new ConcurrentHashMap<String, LongAdder>();
+  private static final int DEFAULT_STACK_DEPTH = 10;
+
+  public final ConcurrentMap<CallSite, CallSiteProfile> reads = new ConcurrentHashMap<CallSite, CallSiteProfile>();
+  public final ConcurrentMap<CallSite, CallSiteProfile> equals = new ConcurrentHashMap<CallSite, CallSiteProfile>();
   public final LongAdder equalsTrue = new LongAdder();
   public final LongAdder equalsFalse = new LongAdder();
 
-  private static String getStackTrace() {
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
-    Exception exception = new Exception("Stack trace");
-    exception.printStackTrace(pw);
-    pw.close();
-    return sw.toString();
-  }
+  private final int sampleRate;
+  private final int stackDepth;
 
   public ProfilingCompactJavaSerializer(ClassLoader loader) {
+    this(loader, 1, DEFAULT_STACK_DEPTH);
+  }
+
+  /**
+   * @param sampleRate profile one call out of {@code sampleRate}, 1 profiles every call
+   * @param stackDepth number of frames above the serializer identifying a call site
+   */
+  public ProfilingCompactJavaSerializer(ClassLoader loader, int sampleRate, int stackDepth) {
     super(loader);
+    if (sampleRate < 1 || stackDepth < 1) {
+      throw new IllegalArgumentException("Sample rate and stack depth must be at least 1");
+    }
+    this.sampleRate = sampleRate;
+    this.stackDepth = stackDepth;
   }
 
   @Override
@@ -55,28 +75,31 @@ public class ProfilingCompactJavaSerializer extends CompactJavaSerializer {
 
   @Override
   public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
-    String stackTrace = getStackTrace();
-    LongAdder counter = new LongAdder();
-    LongAdder existing = reads.putIfAbsent(stackTrace, counter);
-    if (existing != null) {
-      counter = existing;
+    if (!sampled()) {
+      return super.read(binary);
     }
-    counter.increment();
 
-    return super.read(binary);
+    CallSiteProfile profile = profileOf(reads);
+    int size = binary.remaining();
+    long start = System.nanoTime();
+    Object read = super.read(binary);
+    profile.record(size, System.nanoTime() - start);
+    return read;
   }
 
   @Override
   public boolean equals(Object object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
-    String stackTrace = getStackTrace();
-    LongAdder counter = new LongAdder();
-    LongAdder existing = equals.putIfAbsent(stackTrace, counter);
-    if (existing != null) {
-      counter = existing;
+    boolean equals;
+    if (sampled()) {
+      CallSiteProfile profile = profileOf(this.equals);
+      int size = binary.remaining();
+      long start = System.nanoTime();
+      equals = super.equals(object, binary);
+      profile.record(size, System.nanoTime() - start);
+    } else {
+      equals = super.equals(object, binary);
     }
-    counter.increment();
 
-    boolean equals = super.equals(object, binary);
     if (equals) {
       equalsTrue.increment();
     } else {
@@ -85,4 +108,137 @@ public class ProfilingCompactJavaSerializer extends CompactJavaSerializer {
     return equals;
   }
 
+  public void printReport(String label, PrintStream out) {
+    out.println("*** " + label + " reads ***");
+    print(reads, out);
+    out.println("*** " + label + " equals ***");
+    print(equals, out);
+  }
+
+  private static void print(Map<CallSite, CallSiteProfile> profiles, PrintStream out) {
+    List<Map.Entry<CallSite, CallSiteProfile>> entries = new ArrayList<Map.Entry<CallSite, CallSiteProfile>>(profiles.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<CallSite, CallSiteProfile>>() {
+      @Override
+      public int compare(Map.Entry<CallSite, CallSiteProfile> o1, Map.Entry<CallSite, CallSiteProfile> o2) {
+        return Long.compare(o2.getValue().count.sum(), o1.getValue().count.sum());
+      }
+    });
+    for (Map.Entry<CallSite, CallSiteProfile> entry : entries) {
+      out.println(entry.getValue());
+      out.print(entry.getKey());
+    }
+  }
+
+  private boolean sampled() {
+    return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+  }
+
+  private CallSiteProfile profileOf(ConcurrentMap<CallSite, CallSiteProfile> profiles) {
+    StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+    // skip profileOf() and the profiled method itself
+    int from = Math.min(2, stackTrace.length);
+    CallSite callSite = new CallSite(Arrays.copyOfRange(stackTrace, from, Math.min(stackTrace.length, from + stackDepth)));
+
+    CallSiteProfile profile = profiles.get(callSite);
+    if (profile == null) {
+      profile = new CallSiteProfile();
+      CallSiteProfile existing = profiles.putIfAbsent(callSite, profile);
+      if (existing != null) {
+        profile = existing;
+      }
+    }
+    return profile;
+  }
+
+  public static class CallSite {
+    private final StackTraceElement[] frames;
+    private final int hashCode;
+
+    CallSite(StackTraceElement[] frames) {
+      this.frames = frames;
+      this.hashCode = Arrays.hashCode(frames);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof CallSite && hashCode == ((CallSite) obj).hashCode && Arrays.equals(frames, ((CallSite) obj).frames);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (StackTraceElement frame : frames) {
+        sb.append("\tat ").append(frame).append('\n');
+      }
+      return sb.toString();
+    }
+  }
+
+  public static class CallSiteProfile {
+    public final LongAdder count = new LongAdder();
+    public final Log2Histogram sizes = new Log2Histogram();
+    public final Log2Histogram nanos = new Log2Histogram();
+
+    void record(int size, long duration) {
+      count.increment();
+      sizes.record(size);
+      nanos.record(duration);
+    }
+
+    @Override
+    public String toString() {
+      return count.sum() + " sampled calls, size " + sizes + ", time (ns) " + nanos;
+    }
+  }
+
+  /**
+   * Counts values in power-of-two buckets, precise enough to spot outliers at a constant recording cost.
+   */
+  public static class Log2Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+      long v = Math.max(0L, value);
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+      sum.add(v);
+    }
+
+    public long count() {
+      long count = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        count += buckets.get(i);
+      }
+      return count;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile
+     */
+    public long percentile(double percentile) {
+      long count = count();
+      long threshold = (long) Math.ceil(count * percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= threshold && seen > 0) {
+          return i == 0 ? 0L : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+      }
+      return 0L;
+    }
+
+    @Override
+    public String toString() {
+      long count = count();
+      return String.format("[mean=%.1f, p50<=%d, p99<=%d, max<=%d]", count == 0 ? 0.0 : (double) sum.sum() / count,
+          percentile(50), percentile(99), percentile(100));
+    }
+  }
+
 }
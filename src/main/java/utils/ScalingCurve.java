@@ -0,0 +1,134 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput measured at increasing thread counts, with the derived per-thread throughput and parallel efficiency.
+ * <p/>
+ * Scaling is flagged as collapsed at the first step where the parallel efficiency falls under
+ * {@link #MIN_EFFICIENCY}, or where adding threads gains less than {@link #MIN_GAIN} over the previous step.
+ *
+ * @author Ludovic Orban
+ */
+public class ScalingCurve {
+
+  public static final double MIN_EFFICIENCY = 0.5;
+  public static final double MIN_GAIN = 0.1;
+
+  private final List<Integer> threads = new ArrayList<Integer>();
+  private final List<Long> tps = new ArrayList<Long>();
+
+  /**
+   * @return 1, 2, 4... up to maxThreads, maxThreads included even when it is not a power of two
+   */
+  public static int[] threadCounts(int maxThreads) {
+    List<Integer> counts = new ArrayList<Integer>();
+    for (int count = 1; count < maxThreads; count <<= 1) {
+      counts.add(count);
+    }
+    counts.add(maxThreads);
+    int[] result = new int[counts.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = counts.get(i);
+    }
+    return result;
+  }
+
+  public void add(int threadCount, long totalTps) {
+    threads.add(threadCount);
+    tps.add(totalTps);
+  }
+
+  public double tpsPerThread(int step) {
+    return (double) tps.get(step) / threads.get(step);
+  }
+
+  /**
+   * @return throughput over what perfect scaling of the first step would give
+   */
+  public double efficiency(int step) {
+    double baseline = tpsPerThread(0);
+    return baseline == 0.0 ? 0.0 : tpsPerThread(step) / baseline;
+  }
+
+  /**
+   * @return the first step where scaling collapses, or -1
+   */
+  public int collapseStep() {
+    for (int i = 1; i < tps.size(); i++) {
+      double gain = (double) tps.get(i) / tps.get(i - 1) - 1.0;
+      if (efficiency(i) < MIN_EFFICIENCY || gain < MIN_GAIN) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the step with the highest total throughput
+   */
+  public int peakStep() {
+    int peak = 0;
+    for (int i = 1; i < tps.size(); i++) {
+      if (tps.get(i) > tps.get(peak)) {
+        peak = i;
+      }
+    }
+    return peak;
+  }
+
+  public void print(PrintStream out) {
+    int collapse = collapseStep();
+    int peak = peakStep();
+    out.println("threads        TPS  TPS/thread  speedup  efficiency");
+    for (int i = 0; i < tps.size(); i++) {
+      out.printf("%7d %10d %11.0f %8.2f %10.1f%%", threads.get(i), tps.get(i), tpsPerThread(i),
+          tps.get(0) == 0 ? 0.0 : (double) tps.get(i) / tps.get(0), efficiency(i) * 100.0);
+      if (i == collapse) {
+        out.print("  <-- scaling collapses");
+      }
+      if (i == peak) {
+        out.print("  <-- peak");
+      }
+      out.println();
+    }
+    if (collapse > 0) {
+      out.println("scaling holds up to " + threads.get(collapse - 1) + " threads, peak throughput at " + threads.get(peak) + " threads");
+    } else {
+      out.println("no scaling collapse up to " + threads.get(threads.size() - 1) + " threads");
+    }
+  }
+
+  public void writeCsv(File file) throws IOException {
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    try {
+      writer.println("threads,tps,tpsPerThread,efficiency");
+      for (int i = 0; i < tps.size(); i++) {
+        writer.println(threads.get(i) + "," + tps.get(i) + "," + tpsPerThread(i) + "," + efficiency(i));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+}
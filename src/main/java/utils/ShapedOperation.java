@@ -0,0 +1,79 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.AssertionEvaluator;
+import io.rainfall.Configuration;
+import io.rainfall.Operation;
+import io.rainfall.TestException;
+import io.rainfall.statistics.StatisticsHolder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs any rainfall operation along a {@link TrafficShape}. When a latency recorder is given, every execution of the
+ * operation is recorded in it, from its actual start and from the time it was meant to start.
+ *
+ * @author Ludovic Orban
+ */
+public class ShapedOperation extends Operation implements Closeable {
+
+  private final Operation operation;
+  private final TrafficShaper shaper;
+  private final LatencyRecorder latencyRecorder;
+
+  public ShapedOperation(Operation operation, TrafficShape shape, LatencyRecorder latencyRecorder) {
+    this.operation = operation;
+    this.shaper = new TrafficShaper(shape);
+    this.latencyRecorder = latencyRecorder;
+    if (latencyRecorder != null) {
+      latencyRecorder.setTrafficShaper(shaper);
+    }
+  }
+
+  @Override
+  public void exec(final StatisticsHolder statisticsHolder, final Map<Class<? extends Configuration>,
+      Configuration> configurations, final List<AssertionEvaluator> assertions) throws TestException {
+    long intendedStart = shaper.acquire();
+    if (intendedStart == OpenLoopPacer.PAUSED) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      operation.exec(statisticsHolder, configurations, assertions);
+    } finally {
+      if (latencyRecorder != null) {
+        latencyRecorder.record(intendedStart, start, System.nanoTime());
+      }
+    }
+  }
+
+  @Override
+  public List<String> getDescription() {
+    List<String> desc = new ArrayList<String>();
+    desc.add("traffic shape " + shaper.getShape());
+    desc.addAll(operation.getDescription());
+    return desc;
+  }
+
+  @Override
+  public void close() {
+    shaper.close();
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.exceptions.SerializerException;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A serializer that can encode straight into a buffer supplied by the caller, instead of returning its own.
+ *
+ * @author Ludovic Orban
+ */
+public interface StreamingSerializer<T> extends Serializer<T> {
+
+  /**
+   * @return the number of bytes {@link #serialize(Object, ByteBuffer)} will write for the given object, or an upper
+   * bound of it
+   */
+  int encodedSize(T object) throws SerializerException;
+
+  /**
+   * Encodes the object at the position of the destination, and advances it past the written bytes. The destination
+   * must have at least {@link #encodedSize(Object)} bytes remaining.
+   */
+  void serialize(T object, ByteBuffer destination) throws SerializerException;
+
+}
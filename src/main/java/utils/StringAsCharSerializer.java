@@ -16,33 +16,186 @@
 package utils;
 
 import org.ehcache.exceptions.SerializerException;
-import org.ehcache.spi.serialization.Serializer;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 /**
+ * In compact mode, strings whose chars all fit in latin-1 are stored with 1 byte per char, other strings with
+ * 2 bytes per char, behind a one byte coder flag. Otherwise every char is stored on 2 bytes without any flag.
+ *
  * @author Ludovic Orban
  */
-public class StringAsCharSerializer implements Serializer<String> {
+public class StringAsCharSerializer implements StreamingSerializer<String> {
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private static final byte LATIN1 = 0;
+  private static final byte UTF16 = 1;
+
+  private static final int CHUNK_SIZE = 8192;
+
+  private static final ThreadLocal<char[]> charChunk = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[CHUNK_SIZE];
+    }
+  };
+  private static final ThreadLocal<byte[]> byteChunk = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[CHUNK_SIZE];
+    }
+  };
+
+  private final boolean compact;
+
+  public StringAsCharSerializer() {
+    this(true);
+  }
+
+  public StringAsCharSerializer(ClassLoader classLoader) {
+    this(true);
+  }
+
+  public StringAsCharSerializer(boolean compact) {
+    this.compact = compact;
+  }
+
   @Override
   public ByteBuffer serialize(String object) throws SerializerException {
-    char[] chars = object.toCharArray();
-    ByteBuffer byteBuffer = ByteBuffer.allocate(chars.length * 2);
-    CharBuffer charBuffer = byteBuffer.asCharBuffer();
-    charBuffer.put(chars);
+    boolean latin1 = compact && isLatin1(object);
+    ByteBuffer byteBuffer = ByteBuffer.allocate(encodedSize(object, latin1));
+    write(object, latin1, byteBuffer);
+    byteBuffer.flip();
     return byteBuffer;
   }
 
+  @Override
+  public int encodedSize(String object) throws SerializerException {
+    return encodedSize(object, compact && isLatin1(object));
+  }
+
+  @Override
+  public void serialize(String object, ByteBuffer destination) throws SerializerException {
+    boolean latin1 = compact && isLatin1(object);
+    if (destination.remaining() < encodedSize(object, latin1)) {
+      throw new BufferOverflowException();
+    }
+    write(object, latin1, destination);
+  }
+
+  private int encodedSize(String object, boolean latin1) {
+    int length = object.length();
+    if (!compact) {
+      return length * 2;
+    }
+    return 1 + (latin1 ? length : length * 2);
+  }
+
+  @SuppressWarnings("deprecation")
+  private void write(String object, boolean latin1, ByteBuffer destination) {
+    int length = object.length();
+    if (compact) {
+      destination.put(latin1 ? LATIN1 : UTF16);
+    }
+
+    if (latin1 && destination.hasArray()) {
+      // getBytes(int, int, byte[], int) keeps the low byte of each char, which is the latin-1 encoding here
+      object.getBytes(0, length, destination.array(), destination.arrayOffset() + destination.position());
+      destination.position(destination.position() + length);
+      return;
+    }
+
+    // copy through small per-thread chunks so that large strings never get a full size intermediate copy
+    char[] chars = charChunk.get();
+    byte[] bytes = latin1 ? byteChunk.get() : null;
+    CharBuffer charBuffer = latin1 ? null : destination.duplicate().asCharBuffer();
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int end = Math.min(length, start + CHUNK_SIZE);
+      if (latin1) {
+        object.getBytes(start, end, bytes, 0);
+        destination.put(bytes, 0, end - start);
+      } else {
+        object.getChars(start, end, chars, 0);
+        charBuffer.put(chars, 0, end - start);
+      }
+    }
+    if (!latin1) {
+      destination.position(destination.position() + length * 2);
+    }
+  }
+
+  private static boolean isLatin1(String object) {
+    for (int i = 0; i < object.length(); i++) {
+      if (object.charAt(i) > 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public String read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    if (compact && binary.get() == LATIN1) {
+      if (binary.hasArray()) {
+        String string = new String(binary.array(), binary.arrayOffset() + binary.position(), binary.remaining(), ISO_8859_1);
+        binary.position(binary.limit());
+        return string;
+      }
+      byte[] bytes = new byte[binary.remaining()];
+      binary.get(bytes);
+      return new String(bytes, ISO_8859_1);
+    }
+
     char[] chars = new char[binary.remaining() / 2];
     binary.asCharBuffer().get(chars);
     return new String(chars);
   }
 
+  /**
+   * Decodes a single char of a serialized String, without reading the rest of it.
+   */
+  public char charAt(ByteBuffer binary, int index) {
+    int position = binary.position();
+    if (compact) {
+      if (binary.get(position) == LATIN1) {
+        return (char) (binary.get(position + 1 + index) & 0xFF);
+      }
+      position++;
+    }
+    return binary.getChar(position + index * 2);
+  }
+
   @Override
   public boolean equals(String object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
-    return object.equals(read(binary));
+    int position = binary.position();
+    int length = object.length();
+    boolean latin1 = false;
+    if (compact) {
+      latin1 = binary.get(position) == LATIN1;
+      position++;
+    }
+
+    int size = binary.limit() - position;
+    if (size != (latin1 ? length : length * 2)) {
+      return false;
+    }
+    if (latin1) {
+      for (int i = 0; i < length; i++) {
+        if (object.charAt(i) != (char) (binary.get(position + i) & 0xFF)) {
+          return false;
+        }
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        if (object.charAt(i) != binary.getChar(position + i * 2)) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 }
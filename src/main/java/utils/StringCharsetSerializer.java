@@ -49,6 +49,20 @@ public class StringCharsetSerializer implements Serializer<String> {
 
   @Override
   public boolean equals(String object, ByteBuffer binary) throws ClassNotFoundException {
-    return object.equals(read(binary));
+    int size = binary.remaining();
+    if (size != object.length()) {
+      return false;
+    }
+
+    // US-ASCII decodes one byte into one char, so compare in place without building the stored String
+    int position = binary.position();
+    for (int i = 0; i < size; i++) {
+      byte b = binary.get(position + i);
+      char decoded = b >= 0 ? (char) b : '\uFFFD';
+      if (object.charAt(i) != decoded) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a key trace written by {@link TraceWriter} through memory mapped segments of at most 1 GB, so that traces of
+ * any size are streamed from the page cache without copies.
+ * <p/>
+ * The reader is a single cursor, concurrent users take batches of records with {@link #next(TraceRecord[])}.
+ *
+ * @author Ludovic Orban
+ */
+public class TraceReader implements Closeable {
+
+  private static final long SEGMENT_SIZE = 1L << 30;
+  private static final int HEADER_SIZE = 13;
+  private static final MixedWorkload.OperationType[] TYPES = MixedWorkload.OperationType.values();
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer[] segments;
+  private final long startMillis;
+  private int segmentIndex;
+  private MappedByteBuffer current;
+  private long previousTimeMicros;
+  private long previousKeyId;
+
+  public TraceReader(File traceFile) throws IOException {
+    this.file = new RandomAccessFile(traceFile, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new IOException(traceFile + " is not a key trace, it is only " + size + " bytes long");
+      }
+      this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+      }
+      if (segments[0].getInt(0) != TraceWriter.MAGIC) {
+        throw new IOException(traceFile + " is not a key trace");
+      }
+      if (segments[0].get(4) != TraceWriter.VERSION) {
+        throw new IOException(traceFile + " is a version " + segments[0].get(4) + " key trace, expected version " + TraceWriter.VERSION);
+      }
+      this.startMillis = segments[0].getLong(5);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+    rewind();
+  }
+
+  /**
+   * @return the wall clock time at which the trace was started
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Goes back to the first record.
+   */
+  public synchronized void rewind() {
+    for (MappedByteBuffer segment : segments) {
+      segment.clear();
+    }
+    segmentIndex = 0;
+    current = segments[0];
+    current.position(HEADER_SIZE);
+    previousTimeMicros = 0;
+    previousKeyId = 0;
+  }
+
+  /**
+   * @return false when the end of the trace has been reached
+   */
+  public synchronized boolean next(TraceRecord record) throws IOException {
+    if (!hasRemaining()) {
+      return false;
+    }
+    long timeAndType = readVarLong();
+    int type = (int) (timeAndType & ((1 << TraceWriter.TYPE_BITS) - 1));
+    if (type >= TYPES.length) {
+      throw new IOException("Corrupted key trace, unknown operation type " + type);
+    }
+    long zigzag = readVarLong();
+    previousTimeMicros += timeAndType >>> TraceWriter.TYPE_BITS;
+    previousKeyId += (zigzag >>> 1) ^ -(zigzag & 1);
+    record.timeMicros = previousTimeMicros;
+    record.keyId = previousKeyId;
+    record.type = TYPES[type];
+    record.valueSize = (int) readVarLong();
+    return true;
+  }
+
+  /**
+   * Fills the records from the start of the array.
+   *
+   * @return the number of records read, 0 when the end of the trace has been reached
+   */
+  public synchronized int next(TraceRecord[] records) throws IOException {
+    int count = 0;
+    while (count < records.length && next(records[count])) {
+      count++;
+    }
+    return count;
+  }
+
+  private boolean hasRemaining() {
+    while (!current.hasRemaining()) {
+      if (segmentIndex == segments.length - 1) {
+        return false;
+      }
+      current = segments[++segmentIndex];
+    }
+    return true;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!hasRemaining()) {
+        throw new EOFException("Truncated key trace");
+      }
+      byte b = current.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupted key trace, varint longer than 64 bits");
+  }
+
+  @Override
+  public void close() throws IOException {
+    // the mappings themselves are only released when the buffers get collected
+    file.close();
+  }
+}
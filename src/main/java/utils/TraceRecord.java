@@ -0,0 +1,40 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+/**
+ * One cache operation of a key trace, reused from record to record by {@link TraceReader}.
+ *
+ * @author Ludovic Orban
+ */
+public class TraceRecord {
+
+  /**
+   * microseconds since the start of the trace
+   */
+  public long timeMicros;
+  public long keyId;
+  public MixedWorkload.OperationType type;
+  /**
+   * size of the written value, 0 for reads and removes or when the recorder could not size it
+   */
+  public int valueSize;
+
+  @Override
+  public String toString() {
+    return timeMicros + "us " + type + " " + keyId + (valueSize > 0 ? " (" + valueSize + " B)" : "");
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a compact binary key trace, read back by {@link TraceReader}.
+ * <p/>
+ * The file starts with the EHTR magic, a version byte and the wall clock start time in millis. Every record then is
+ * a varint of the time delta in micros shifted left by 3 bits over the operation type, a zigzag varint of the key id
+ * delta and a varint of the value size, so a read of a nearby key a few micros after the previous record takes 3 bytes.
+ *
+ * @author Ludovic Orban
+ */
+public class TraceWriter implements Closeable {
+
+  static final int MAGIC = 0x45485452;
+  static final byte VERSION = 1;
+  static final int TYPE_BITS = 3;
+
+  private final OutputStream out;
+  private final long startNanos;
+  private long previousTimeMicros;
+  private long previousKeyId;
+
+  public TraceWriter(File file) throws IOException {
+    this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(MAGIC);
+    header.writeByte(VERSION);
+    header.writeLong(System.currentTimeMillis());
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Records an operation happening now.
+   */
+  public synchronized void write(MixedWorkload.OperationType type, long keyId, int valueSize) throws IOException {
+    // taking the time under the lock keeps the records in time order
+    write((System.nanoTime() - startNanos) / 1000L, type, keyId, valueSize);
+  }
+
+  /**
+   * Records an operation at the given time, e.g. when converting another trace format.
+   */
+  public synchronized void write(long timeMicros, MixedWorkload.OperationType type, long keyId, int valueSize) throws IOException {
+    if (timeMicros < previousTimeMicros) {
+      throw new IllegalArgumentException("Trace records must be written in time order, got " + timeMicros + "us after " + previousTimeMicros + "us");
+    }
+    writeVarLong(((timeMicros - previousTimeMicros) << TYPE_BITS) | type.ordinal());
+    long keyDelta = keyId - previousKeyId;
+    writeVarLong((keyDelta << 1) ^ (keyDelta >> 63));
+    writeVarLong(valueSize);
+    previousTimeMicros = timeMicros;
+    previousKeyId = keyId;
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.ehcache.Cache;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the gets, puts, removes, putIfAbsents and replaces done through it to a key trace before passing them
+ * to the wrapped cache, to capture the access pattern of an application in staging and replay it with
+ * {@link io.rainfall.ehcache3.operation.TraceReplayOperation}.
+ * <p/>
+ * Only key ids are recorded: Long keys as is, other keys are numbered in order of first access. The value sizes come
+ * from the given serializer, or are the length of String and byte[] values when there is none.
+ *
+ * @author Ludovic Orban
+ */
+public class TracingCache<K, V> {
+
+  public interface KeyIds<K> {
+    long idOf(K key);
+  }
+
+  private final Cache<K, V> cache;
+  private final TraceWriter writer;
+  private final KeyIds<K> keyIds;
+  private final Serializer<V> valueSerializer;
+
+  public TracingCache(Cache<K, V> cache, TraceWriter writer, KeyIds<K> keyIds) {
+    this(cache, writer, keyIds, null);
+  }
+
+  public TracingCache(Cache<K, V> cache, TraceWriter writer, KeyIds<K> keyIds, Serializer<V> valueSerializer) {
+    this.cache = cache;
+    this.writer = writer;
+    this.keyIds = keyIds;
+    this.valueSerializer = valueSerializer;
+  }
+
+  public static KeyIds<Long> longKeys() {
+    return new KeyIds<Long>() {
+      @Override
+      public long idOf(Long key) {
+        return key;
+      }
+    };
+  }
+
+  public static <K> KeyIds<K> numberedKeys() {
+    return new KeyIds<K>() {
+      private final ConcurrentMap<K, Long> ids = new ConcurrentHashMap<K, Long>();
+      private final AtomicLong nextId = new AtomicLong();
+
+      @Override
+      public long idOf(K key) {
+        Long id = ids.get(key);
+        if (id == null) {
+          Long newId = nextId.getAndIncrement();
+          id = ids.putIfAbsent(key, newId);
+          if (id == null) {
+            id = newId;
+          }
+        }
+        return id;
+      }
+    };
+  }
+
+  /**
+   * @return the wrapped cache, whose operations are not recorded
+   */
+  public Cache<K, V> getCache() {
+    return cache;
+  }
+
+  public V get(K key) {
+    record(MixedWorkload.OperationType.GET, key, null);
+    return cache.get(key);
+  }
+
+  public void put(K key, V value) {
+    record(MixedWorkload.OperationType.PUT, key, value);
+    cache.put(key, value);
+  }
+
+  public void remove(K key) {
+    record(MixedWorkload.OperationType.REMOVE, key, null);
+    cache.remove(key);
+  }
+
+  public V putIfAbsent(K key, V value) {
+    record(MixedWorkload.OperationType.PUT_IF_ABSENT, key, value);
+    return cache.putIfAbsent(key, value);
+  }
+
+  public V replace(K key, V value) {
+    record(MixedWorkload.OperationType.REPLACE, key, value);
+    return cache.replace(key, value);
+  }
+
+  private void record(MixedWorkload.OperationType type, K key, V value) {
+    // recorded before the call, the trace holds when the application asked, not when the cache answered
+    try {
+      writer.write(type, keyIds.idOf(key), value == null ? 0 : sizeOf(value));
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot write to the key trace", e);
+    }
+  }
+
+  private int sizeOf(V value) {
+    if (valueSerializer != null) {
+      return valueSerializer.serialize(value).remaining();
+    } else if (value instanceof String) {
+      return ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The offered throughput of a run over time.
+ * <p/>
+ * Shapes are parsed from specs, times in seconds :
+ * <ul>
+ * <li>constant:TPS</li>
+ * <li>triangle:MAX, from 1% to 100% of MAX and back, by 1% every 500ms</li>
+ * <li>step:FROM:TO:AT, FROM until AT then TO</li>
+ * <li>sine:MEAN:AMPLITUDE:PERIOD</li>
+ * <li>burst:BASE:PEAK:PERIOD:LENGTH, PEAK for the first LENGTH of every PERIOD, BASE otherwise</li>
+ * <li>poisson:SHAPE, any other shape with exponentially distributed arrivals instead of evenly spaced ones</li>
+ * <li>file:PATH, one "seconds tps" point per line, interpolated linearly and holding the last point</li>
+ * </ul>
+ *
+ * @author Ludovic Orban
+ */
+public abstract class TrafficShape {
+
+  private final String spec;
+
+  protected TrafficShape(String spec) {
+    this.spec = spec;
+  }
+
+  /**
+   * @return the offered TPS, elapsedMillis after the start of the run
+   */
+  public abstract long tpsAt(long elapsedMillis);
+
+  /**
+   * @return true when operations arrive as a Poisson process around the shape's TPS
+   */
+  public boolean isPoisson() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return spec;
+  }
+
+  public static TrafficShape parse(String spec) throws IOException {
+    int separator = spec.indexOf(':');
+    String type = separator < 0 ? spec : spec.substring(0, separator);
+    String arguments = separator < 0 ? "" : spec.substring(separator + 1);
+    if (type.equals("poisson")) {
+      return poisson(parse(arguments));
+    } else if (type.equals("file")) {
+      return piecewise(new File(arguments));
+    }
+
+    String[] args = arguments.split(":");
+    if (type.equals("constant") && args.length == 1) {
+      return constant(Long.parseLong(args[0]));
+    } else if (type.equals("triangle") && args.length == 1) {
+      return triangle(Long.parseLong(args[0]));
+    } else if (type.equals("step") && args.length == 3) {
+      return step(Long.parseLong(args[0]), Long.parseLong(args[1]), Double.parseDouble(args[2]));
+    } else if (type.equals("sine") && args.length == 3) {
+      return sine(Long.parseLong(args[0]), Long.parseLong(args[1]), Double.parseDouble(args[2]));
+    } else if (type.equals("burst") && args.length == 4) {
+      return burst(Long.parseLong(args[0]), Long.parseLong(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+    }
+    throw new IllegalArgumentException("Unknown traffic shape " + spec);
+  }
+
+  public static TrafficShape constant(final long tps) {
+    return new TrafficShape("constant:" + tps) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        return tps;
+      }
+    };
+  }
+
+  /**
+   * The shape TpsSpikeGetOperation always had.
+   */
+  public static TrafficShape triangle(final long maxTps) {
+    if (maxTps < 100) {
+      // every 1% step would be 0 TPS
+      throw new IllegalArgumentException("The triangle shape needs a max of at least 100 TPS, got " + maxTps);
+    }
+    return new TrafficShape("triangle:" + maxTps) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        long step = (elapsedMillis / 500) % 198;
+        return (step <= 99 ? 1 + step : 199 - step) * (maxTps / 100);
+      }
+    };
+  }
+
+  public static TrafficShape step(final long fromTps, final long toTps, final double atSeconds) {
+    return new TrafficShape("step:" + fromTps + ":" + toTps + ":" + atSeconds) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        return elapsedMillis < atSeconds * 1000 ? fromTps : toTps;
+      }
+    };
+  }
+
+  public static TrafficShape sine(final long meanTps, final long amplitudeTps, final double periodSeconds) {
+    return new TrafficShape("sine:" + meanTps + ":" + amplitudeTps + ":" + periodSeconds) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        double angle = 2 * Math.PI * elapsedMillis / (periodSeconds * 1000);
+        return Math.max(0L, Math.round(meanTps + amplitudeTps * Math.sin(angle)));
+      }
+    };
+  }
+
+  public static TrafficShape burst(final long baseTps, final long peakTps, final double periodSeconds, final double lengthSeconds) {
+    return new TrafficShape("burst:" + baseTps + ":" + peakTps + ":" + periodSeconds + ":" + lengthSeconds) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        return elapsedMillis % (long) (periodSeconds * 1000) < lengthSeconds * 1000 ? peakTps : baseTps;
+      }
+    };
+  }
+
+  public static TrafficShape poisson(final TrafficShape shape) {
+    return new TrafficShape("poisson:" + shape) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        return shape.tpsAt(elapsedMillis);
+      }
+
+      @Override
+      public boolean isPoisson() {
+        return true;
+      }
+    };
+  }
+
+  public static TrafficShape piecewise(File file) throws IOException {
+    final List<long[]> points = new ArrayList<long[]>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        if (fields.length != 2) {
+          throw new IllegalArgumentException("Expected 'seconds tps' in " + file + ", got '" + line + "'");
+        }
+        long millis = (long) (Double.parseDouble(fields[0]) * 1000);
+        if (!points.isEmpty() && millis < points.get(points.size() - 1)[0]) {
+          throw new IllegalArgumentException("Points of " + file + " are not in time order at '" + line + "'");
+        }
+        points.add(new long[] {millis, Long.parseLong(fields[1])});
+      }
+    } finally {
+      reader.close();
+    }
+    if (points.isEmpty()) {
+      throw new IllegalArgumentException("No point in " + file);
+    }
+
+    return new TrafficShape("file:" + file.getPath()) {
+      @Override
+      public long tpsAt(long elapsedMillis) {
+        long[] previous = points.get(0);
+        if (elapsedMillis <= previous[0]) {
+          return previous[1];
+        }
+        for (int i = 1; i < points.size(); i++) {
+          long[] point = points.get(i);
+          if (elapsedMillis < point[0]) {
+            return previous[1] + (point[1] - previous[1]) * (elapsedMillis - previous[0]) / (point[0] - previous[0]);
+          }
+          previous = point;
+        }
+        return previous[1];
+      }
+    };
+  }
+}
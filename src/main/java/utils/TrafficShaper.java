@@ -0,0 +1,96 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces the calling threads along a {@link TrafficShape}, from the first operation until closed.
+ *
+ * @author Ludovic Orban
+ */
+public class TrafficShaper implements Closeable {
+
+  private static final long UPDATE_PERIOD_MILLIS = 10;
+
+  private final TrafficShape shape;
+  private final OpenLoopPacer pacer;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicLong offeredMilliOps = new AtomicLong();
+  private final ScheduledExecutorService updater = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "traffic shaper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  public TrafficShaper(TrafficShape shape) {
+    this.shape = shape;
+    this.pacer = new OpenLoopPacer(shape.tpsAt(0), shape.isPoisson());
+  }
+
+  public TrafficShape getShape() {
+    return shape;
+  }
+
+  /**
+   * Waits until the calling thread's next operation is due.
+   *
+   * @return the time, in System.nanoTime() terms, at which the operation was meant to start, or
+   * {@link OpenLoopPacer#PAUSED} when the shape is at 0 TPS and the operation must be skipped
+   */
+  public long acquire() {
+    if (!started.get() && started.compareAndSet(false, true)) {
+      start();
+    }
+    return pacer.acquire();
+  }
+
+  /**
+   * @return the number of operations the shape offered since the last call
+   */
+  public long drainOfferedOps() {
+    return offeredMilliOps.getAndSet(0L) / 1000;
+  }
+
+  private void start() {
+    final long startMillis = System.currentTimeMillis();
+    updater.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        long tps = shape.tpsAt(System.currentTimeMillis() - startMillis);
+        pacer.setTargetTps(tps);
+        offeredMilliOps.addAndGet(tps * UPDATE_PERIOD_MILLIS);
+      }
+    }, 0, UPDATE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops following the shape, the threads keep running at the last TPS.
+   */
+  @Override
+  public void close() {
+    updater.shutdownNow();
+  }
+}
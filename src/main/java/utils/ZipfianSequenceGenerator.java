@@ -0,0 +1,134 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import io.rainfall.SequenceGenerator;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws keys from [0, nbKeys) following a Zipfian distribution, as YCSB does : the key of rank r is drawn with a
+ * probability proportional to 1 / (r + 1)^theta.
+ * <p/>
+ * The distribution is precomputed into an alias table, 12 bytes per key, so a draw costs one random number and one
+ * or two array reads whatever the key count and theta. Unscrambled, the most popular keys are the lowest ones.
+ * Scrambled, ranks are mapped to keys by a fixed random permutation, so the popular keys are spread over the whole
+ * key space and do not share cache lines or offheap segments.
+ *
+ * @author Ludovic Orban
+ */
+public class ZipfianSequenceGenerator implements SequenceGenerator {
+
+  private static final long SCRAMBLE_SEED = 0x5DEECE66DL;
+
+  private final int nbKeys;
+  private final double theta;
+  private final boolean scrambled;
+  private final double[] probabilities;
+  private final int[] aliases;
+
+  public ZipfianSequenceGenerator(int nbKeys, double theta) {
+    this(nbKeys, theta, false);
+  }
+
+  public ZipfianSequenceGenerator(int nbKeys, double theta, boolean scrambled) {
+    if (nbKeys <= 0) {
+      throw new IllegalArgumentException("Can not draw from " + nbKeys + " keys");
+    }
+    if (theta < 0.0) {
+      throw new IllegalArgumentException("theta must not be negative, got " + theta);
+    }
+    this.nbKeys = nbKeys;
+    this.theta = theta;
+    this.scrambled = scrambled;
+
+    double[] weights = new double[nbKeys];
+    double total = 0.0;
+    for (int rank = 0; rank < nbKeys; rank++) {
+      double weight = 1.0 / Math.pow(rank + 1, theta);
+      weights[rank] = weight;
+      total += weight;
+    }
+    if (scrambled) {
+      // Fisher-Yates with a fixed seed, every run scrambles the same way
+      Random random = new Random(SCRAMBLE_SEED);
+      for (int i = nbKeys - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+      }
+    }
+
+    this.probabilities = new double[nbKeys];
+    this.aliases = new int[nbKeys];
+    buildAliasTable(weights, total);
+  }
+
+  /**
+   * Vose's alias method : every slot holds the probability of keeping its own key, and the key to return otherwise.
+   */
+  private void buildAliasTable(double[] weights, double total) {
+    int[] small = new int[nbKeys];
+    int[] large = new int[nbKeys];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < nbKeys; i++) {
+      weights[i] = weights[i] * nbKeys / total;
+      if (weights[i] < 1.0) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      probabilities[less] = weights[less];
+      aliases[less] = more;
+      weights[more] = (weights[more] + weights[less]) - 1.0;
+      if (weights[more] < 1.0) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // whatever is left is 1.0 give or take rounding errors
+    while (largeCount > 0) {
+      int index = large[--largeCount];
+      probabilities[index] = 1.0;
+      aliases[index] = index;
+    }
+    while (smallCount > 0) {
+      int index = small[--smallCount];
+      probabilities[index] = 1.0;
+      aliases[index] = index;
+    }
+  }
+
+  @Override
+  public long next() {
+    double draw = ThreadLocalRandom.current().nextDouble() * nbKeys;
+    int slot = (int) draw;
+    return draw - slot < probabilities[slot] ? slot : aliases[slot];
+  }
+
+  @Override
+  public String getDescription() {
+    return (scrambled ? "Scrambled Zipfian" : "Zipfian") + " distribution (keys = " + nbKeys + ", theta = " + theta + ")";
+  }
+}